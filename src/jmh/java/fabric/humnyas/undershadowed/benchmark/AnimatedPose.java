@@ -0,0 +1,32 @@
+package fabric.humnyas.undershadowed.benchmark;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import fabric.humnyas.undershadowed.geometry.PoseSource;
+import fabric.humnyas.undershadowed.geometry.ShadowArena;
+
+// One of the BoneSets swinging its limbs back and forth, standing in for a posed ModelHierarchy. The first two bones
+// (head and body) stay still, neighbouring limbs swing in opposite directions
+public class AnimatedPose implements PoseSource {
+    private final float[] bones;
+    private final int boneCount;
+    public float time; // In radians of the swing
+
+    public AnimatedPose(float[] bones) {
+        this.bones = bones;
+        this.boneCount = BoneSets.getBoneCount(bones);
+    }
+
+    @Override
+    public int writeBones(ShadowArena arena) {
+        arena.ensureBones(boneCount);
+        System.arraycopy(bones, 0, arena.bones, 0, boneCount * BONE_STRIDE);
+
+        for (int i = 2; i < boneCount; i++) {
+            float swing = (float) Math.sin(time + i) * 0.6f;
+            arena.bones[i * BONE_STRIDE + BONE_PITCH] += (i & 1) == 0 ? swing : -swing;
+        }
+
+        arena.boneCount = boneCount;
+        return boneCount;
+    }
+}
@@ -0,0 +1,73 @@
+package fabric.humnyas.undershadowed.benchmark;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import java.util.Random;
+
+// Packed bone sets shaped like real models, in the layout ModelDataExtractor writes. Positions are box centers in
+// model space (blocks, y down, the feet at 1.5), sizes are in blocks
+public class BoneSets {
+    private static final float PIXEL = 1 / 16f;
+
+    // Player sized, mid stride
+    public static float[] biped() {
+        float[] bones = new float[BONE_STRIDE * 6];
+        setBone(bones, 0, 0, -4, 0, 0.1f, 0.3f, 0, 8, 8, 8); // Head
+        setBone(bones, 1, 0, 6, 0, 0, 0, 0, 8, 12, 4); // Body
+        setBone(bones, 2, -6, 6, 0, -0.6f, 0, 0.1f, 4, 12, 4); // Arms
+        setBone(bones, 3, 6, 6, 0, 0.6f, 0, -0.1f, 4, 12, 4);
+        setBone(bones, 4, -2, 18, 0, 0.6f, 0, 0, 4, 12, 4); // Legs
+        setBone(bones, 5, 2, 18, 0, -0.6f, 0, 0, 4, 12, 4);
+        return bones;
+    }
+
+    // Pig sized, body turned on its side like vanilla quadrupeds
+    public static float[] quadruped() {
+        float[] bones = new float[BONE_STRIDE * 6];
+        setBone(bones, 0, 0, 12, -10, 0, 0.2f, 0, 8, 8, 8); // Head
+        setBone(bones, 1, 0, 13, 2, (float) Math.PI / 2, 0, 0, 10, 16, 8); // Body
+        setBone(bones, 2, -3, 21, 7, 0.4f, 0, 0, 4, 6, 4); // Legs
+        setBone(bones, 3, 3, 21, 7, -0.4f, 0, 0, 4, 6, 4);
+        setBone(bones, 4, -3, 21, -5, -0.4f, 0, 0, 4, 6, 4);
+        setBone(bones, 5, 3, 21, -5, 0.4f, 0, 0, 4, 6, 4);
+        return bones;
+    }
+
+    // A modded creature with a segmented spine and limbs, 30 bones at odd angles
+    public static float[] modded() {
+        int boneCount = 30;
+        float[] bones = new float[BONE_STRIDE * boneCount];
+        Random random = new Random(30);
+
+        for (int i = 0; i < boneCount; i++) {
+            boolean spine = i % 3 == 0;
+            float
+                    x = spine ? 0 : (i % 3 == 1 ? -1 : 1) * (4 + random.nextFloat() * 6),
+                    y = 6 + random.nextFloat() * 14,
+                    z = -16 + i * 1.2f,
+                    size = spine ? 6 : 3;
+
+            setBone(bones, i, x, y, z,
+                    (random.nextFloat() - 0.5f) * 1.5f, (random.nextFloat() - 0.5f) * 1.5f, (random.nextFloat() - 0.5f) * 1.5f,
+                    size, size + random.nextFloat() * 8, size);
+        }
+        return bones;
+    }
+
+    public static int getBoneCount(float[] bones) {
+        return bones.length / BONE_STRIDE;
+    }
+
+    // Takes pixels like the model definitions, stores blocks
+    private static void setBone(float[] bones, int index, float x, float y, float z, float pitch, float yaw, float roll, float sizeX, float sizeY, float sizeZ) {
+        int bone = index * BONE_STRIDE;
+        bones[bone + BONE_POS_X] = x * PIXEL;
+        bones[bone + BONE_POS_Y] = y * PIXEL;
+        bones[bone + BONE_POS_Z] = z * PIXEL;
+        bones[bone + BONE_PITCH] = pitch;
+        bones[bone + BONE_YAW] = yaw;
+        bones[bone + BONE_ROLL] = roll;
+        bones[bone + BONE_SIZE_X] = sizeX * PIXEL;
+        bones[bone + BONE_SIZE_Y] = sizeY * PIXEL;
+        bones[bone + BONE_SIZE_Z] = sizeZ * PIXEL;
+    }
+}
@@ -0,0 +1,174 @@
+package fabric.humnyas.undershadowed.benchmark;
+
+import fabric.humnyas.undershadowed.core.LightSearch;
+import fabric.humnyas.undershadowed.core.ShadowCore;
+import fabric.humnyas.undershadowed.core.ShadowJob;
+import fabric.humnyas.undershadowed.core.ShadowProfiler;
+import fabric.humnyas.undershadowed.geometry.ShadowGeometry;
+import fabric.humnyas.undershadowed.geometry.ShadowPolygonCache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.UPDATE_INTERVAL;
+
+// Stress test for the shadow core without a game. A crowd of animated entities walks around a SyntheticScene, and
+// every frame each of them gets its lights looked up (staggered like the light refresh) and its shadow captured, built
+// and triangulated on a thread pool. Prints the frame times for every crowd size, run with ./gradlew headless
+//
+// Options, as key=value arguments: entities (comma separated crowd sizes), frames, warmup, threads, profile, vector
+public class HeadlessShadowDriver {
+    private static final SyntheticScene SCENE = new SyntheticScene();
+    private static final float[][] MODELS = {BoneSets.biped(), BoneSets.quadruped(), BoneSets.modded()};
+    private static final float
+            SUN_HORIZONTAL = -90, SUN_VERTICAL = 60, // Morning sun
+            EYE_HEIGHT = 1.6f,
+            FRAME_SECONDS = 1 / 60f;
+
+    private final int entityCount;
+    private final double[] startX, startZ, radius, phase, speed;
+    private final AnimatedPose[] poses;
+    private final float[][] models;
+    private final ShadowJob[] jobs;
+    private final int[] sourceCounts;
+
+    private HeadlessShadowDriver(int entityCount, long seed) {
+        this.entityCount = entityCount;
+        startX = new double[entityCount];
+        startZ = new double[entityCount];
+        radius = new double[entityCount];
+        phase = new double[entityCount];
+        speed = new double[entityCount];
+        poses = new AnimatedPose[entityCount];
+        models = new float[entityCount][];
+        jobs = new ShadowJob[entityCount];
+        sourceCounts = new int[entityCount];
+
+        // Spread over a square that keeps the crowd about as dense as a busy mob farm
+        Random random = new Random(seed);
+        double side = Math.sqrt(entityCount) * 4;
+        for (int i = 0; i < entityCount; i++) {
+            startX[i] = random.nextDouble() * side;
+            startZ[i] = random.nextDouble() * side;
+            radius[i] = 1 + random.nextDouble() * 6;
+            phase[i] = random.nextDouble() * Math.PI * 2;
+            speed[i] = (0.5 + random.nextDouble()) * (random.nextBoolean() ? 1 : -1);
+
+            models[i] = MODELS[random.nextInt(MODELS.length)];
+            poses[i] = new AnimatedPose(models[i]);
+            jobs[i] = new ShadowJob();
+            jobs[i].size = Float.NaN; // Measured on the first capture, like EntityShadowState.baseShadowHeight
+            jobs[i].centerBottomOffset = Float.NaN;
+            sourceCounts[i] = -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split > 0) options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        int[] entityCounts = Arrays.stream(options.getOrDefault("entities", "250,1000,4000").split(",")).mapToInt(Integer::parseInt).toArray();
+        int
+                frames = Integer.parseInt(options.getOrDefault("frames", "200")),
+                warmup = Integer.parseInt(options.getOrDefault("warmup", "60")),
+                threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        boolean
+                profile = Boolean.parseBoolean(options.getOrDefault("profile", "false")),
+                vector = ShadowGeometry.setVectorKernel(Boolean.parseBoolean(options.getOrDefault("vector", "true")));
+
+        ShadowProfiler.setEnabled(profile);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        System.out.printf(Locale.ROOT, "%d threads, %s kernel, %d frames after %d warmup frames%n", threads, vector ? "vector" : "scalar", frames, warmup);
+        System.out.printf(Locale.ROOT, "%9s %9s %9s %9s %9s %12s %9s%n", "entities", "avg ms", "p50 ms", "p95 ms", "max ms", "triangles", "cache");
+
+        for (int entityCount : entityCounts) {
+            new HeadlessShadowDriver(entityCount, entityCount).run(pool, frames, warmup, profile);
+        }
+        pool.shutdown();
+    }
+
+    private void run(ForkJoinPool pool, int frames, int warmup, boolean profile) {
+        ShadowPolygonCache.clear();
+        for (int frame = 0; frame < warmup; frame++) runFrame(pool, frame);
+
+        ShadowProfiler.reset();
+        long hits = ShadowPolygonCache.getHits(), misses = ShadowPolygonCache.getMisses();
+        long[] frameTimes = new long[frames];
+        long triangles = 0;
+
+        for (int frame = 0; frame < frames; frame++) {
+            long start = System.nanoTime();
+            runFrame(pool, warmup + frame);
+            frameTimes[frame] = System.nanoTime() - start;
+
+            for (ShadowJob job : jobs) triangles += job.triangleVertexCount / 3;
+        }
+
+        hits = ShadowPolygonCache.getHits() - hits;
+        misses = ShadowPolygonCache.getMisses() - misses;
+        Arrays.sort(frameTimes);
+
+        System.out.printf(Locale.ROOT, "%9d %9.2f %9.2f %9.2f %9.2f %12d %8.0f%%%n",
+                entityCount,
+                Arrays.stream(frameTimes).average().orElse(0) / 1e6,
+                frameTimes[frames / 2] / 1e6,
+                frameTimes[Math.min(frames - 1, frames * 95 / 100)] / 1e6,
+                frameTimes[frames - 1] / 1e6,
+                triangles / frames,
+                hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses));
+
+        if (profile) ShadowProfiler.getReport().forEach(line -> System.out.println("    " + line));
+    }
+
+    private void runFrame(ForkJoinPool pool, int frame) {
+        ShadowProfiler.count(ShadowProfiler.Counter.FRAMES, 1);
+        ShadowProfiler.count(ShadowProfiler.Counter.ENTITIES, entityCount);
+
+        // Tasks forked from inside the pool stay on it, so the parallel stream uses the drivers threads
+        pool.submit(() -> IntStream.range(0, entityCount).parallel().forEach(i -> runEntity(i, frame))).join();
+    }
+
+    // Everything ShadowEngine and ShadowPass do for one entity, with the scene and the crowd in place of the world
+    private void runEntity(int i, int frame) {
+        ShadowJob job = jobs[i];
+        job.reset();
+
+        double
+                time = frame * FRAME_SECONDS,
+                angle = phase[i] + time * speed[i] / radius[i],
+                x = startX[i] + Math.cos(angle) * radius[i],
+                z = startZ[i] + Math.sin(angle) * radius[i];
+
+        // Lights are searched every UPDATE_INTERVAL frames, spread over the crowd so every frame gets an even share
+        if (sourceCounts[i] < 0 || (i + frame) % UPDATE_INTERVAL == 0) {
+            job.ensureAngles(1);
+            job.angles[0] = SUN_HORIZONTAL;
+            job.angles[1] = SUN_VERTICAL;
+            sourceCounts[i] = LightSearch.findLights(SCENE, x, 0, z, EYE_HEIGHT, job, 1);
+        }
+        job.sourceCount = sourceCounts[i];
+        ShadowProfiler.count(ShadowProfiler.Counter.LIGHTS, job.sourceCount);
+
+        job.model = models[i];
+        job.opacity = 0.5f;
+        job.originX = x;
+        job.originY = 0.01;
+        job.originZ = z;
+
+        // Walking along the circle, so the body faces the direction of travel
+        float bodyYaw = (float) Math.toDegrees(angle) + (speed[i] > 0 ? 180 : 0);
+        poses[i].time = (float) (time * 8 + phase[i]);
+
+        ShadowCore.capturePose(poses[i], bodyYaw, Integer.MAX_VALUE, job);
+        ShadowCore.buildShadow(job);
+    }
+}
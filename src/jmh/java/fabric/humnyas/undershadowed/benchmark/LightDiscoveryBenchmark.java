@@ -0,0 +1,178 @@
+package fabric.humnyas.undershadowed.benchmark;
+
+import fabric.humnyas.undershadowed.core.LightEmitterIndex;
+import fabric.humnyas.undershadowed.core.LightSearch;
+import fabric.humnyas.undershadowed.render.LightSourceHelper;
+import fabric.humnyas.undershadowed.render.LightSourceHelper.LightCandidate;
+import fabric.humnyas.undershadowed.render.WorldLightView;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.fluid.FluidState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.BlockView;
+import org.jetbrains.annotations.Nullable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.SOURCE_BLOCK_RADIUS;
+
+// Light emitter discovery for one entity through LightEmitterIndex and LightSourceHelper, against a lit cave kept in
+// memory instead of a real world
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LightDiscoveryBenchmark {
+    private static final int SIZE_XZ = 96, SIZE_Y = 48;
+
+    @Param({"64", "512"})
+    public int emitterCount;
+
+    private InMemoryBlockView world;
+    private LightEmitterIndex index;
+    private BlockPos[] entityPositions;
+    private List<List<LightCandidate>> entityCandidates;
+    private final LongList emitters = new LongArrayList();
+    private final IntList lights = new IntArrayList();
+    private int next;
+
+    // Blocks inside the box, air everywhere else
+    private static class InMemoryBlockView implements BlockView {
+        private final BlockState[] states = new BlockState[SIZE_XZ * SIZE_Y * SIZE_XZ];
+
+        private InMemoryBlockView() {
+            Arrays.fill(states, Blocks.AIR.getDefaultState());
+        }
+
+        private void set(int x, int y, int z, BlockState state) {
+            states[(y * SIZE_XZ + z) * SIZE_XZ + x] = state;
+        }
+
+        @Override
+        public BlockState getBlockState(BlockPos pos) {
+            int x = pos.getX(), y = pos.getY(), z = pos.getZ();
+            if (x < 0 || y < 0 || z < 0 || x >= SIZE_XZ || y >= SIZE_Y || z >= SIZE_XZ) return Blocks.AIR.getDefaultState();
+            return states[(y * SIZE_XZ + z) * SIZE_XZ + x];
+        }
+
+        @Override
+        public FluidState getFluidState(BlockPos pos) {
+            return getBlockState(pos).getFluidState();
+        }
+
+        @Override
+        public @Nullable BlockEntity getBlockEntity(BlockPos pos) {
+            return null;
+        }
+
+        @Override
+        public int getHeight() {
+            return SIZE_Y;
+        }
+
+        @Override
+        public int getBottomY() {
+            return 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+
+        Random random = new Random(emitterCount);
+        world = new InMemoryBlockView();
+
+        for (int x = 0; x < SIZE_XZ; x++) {
+            for (int z = 0; z < SIZE_XZ; z++) {
+                for (int y = 0; y < 8; y++) world.set(x, y, z, Blocks.STONE.getDefaultState());
+            }
+        }
+
+        BlockState[] lightStates = {Blocks.TORCH.getDefaultState(), Blocks.GLOWSTONE.getDefaultState(), Blocks.LANTERN.getDefaultState()};
+        for (int i = 0; i < emitterCount; i++) {
+            world.set(random.nextInt(SIZE_XZ), 8 + random.nextInt(SIZE_Y - 8), random.nextInt(SIZE_XZ), lightStates[random.nextInt(lightStates.length)]);
+        }
+
+        index = LightEmitterIndex.scan(world, 0, 0, 0, SIZE_XZ - 1, SIZE_Y - 1, SIZE_XZ - 1);
+
+        // Entities walking around the middle of the cave
+        entityPositions = new BlockPos[64];
+        for (int i = 0; i < entityPositions.length; i++) {
+            entityPositions[i] = new BlockPos(24 + random.nextInt(48), 8 + random.nextInt(8), 24 + random.nextInt(48));
+        }
+
+        // In game the candidates of a region are shared by every entity in it for the whole tick
+        entityCandidates = Arrays.stream(entityPositions)
+                .map(pos -> LightSourceHelper.getRegionCandidates(index, world, LightSourceHelper.getRegionKey(pos)))
+                .toList();
+    }
+
+    // The indexed emitters inside the search cube of one entity
+    @Benchmark
+    public int collectEmitters() {
+        next = (next + 1) % entityPositions.length;
+
+        emitters.clear();
+        index.collectEmitters(entityPositions[next], SOURCE_BLOCK_RADIUS, emitters);
+        return emitters.size();
+    }
+
+    // The emitters that could light any block of an entities region, looked up once per region and tick in game
+    @Benchmark
+    public int regionCandidates() {
+        next = (next + 1) % entityPositions.length;
+        return LightSourceHelper.getRegionCandidates(index, world, LightSourceHelper.getRegionKey(entityPositions[next])).size();
+    }
+
+    // The per-entity search over the region candidates, what LightSourceHelper.getNearbySourcePositions runs in game
+    @Benchmark
+    public int findLights() {
+        next = (next + 1) % entityPositions.length;
+        BlockPos pos = entityPositions[next];
+
+        lights.clear();
+        LightSearch.findLights(new AllVisibleView(entityCandidates.get(next)), pos.getX() + 0.5, pos.getY(), pos.getZ() + 0.5, pos.getY() + 1.6, lights);
+        return lights.size();
+    }
+
+    // Reading every block of one section, what indexing a chunk once saves every later query from doing
+    @Benchmark
+    public LightEmitterIndex scanSection() {
+        next = (next + 1) % entityPositions.length;
+        BlockPos pos = entityPositions[next];
+
+        int
+                minX = ChunkSectionPos.getBlockCoord(ChunkSectionPos.getSectionCoord(pos.getX())),
+                minY = ChunkSectionPos.getBlockCoord(ChunkSectionPos.getSectionCoord(pos.getY())),
+                minZ = ChunkSectionPos.getBlockCoord(ChunkSectionPos.getSectionCoord(pos.getZ()));
+        return LightEmitterIndex.scan(world, minX, minY, minZ, minX + 15, minY + 15, minZ + 15);
+    }
+
+    // Raycasts aren't part of this benchmark and need a real world, so every light counts as visible
+    private static class AllVisibleView extends WorldLightView {
+        private AllVisibleView(List<LightCandidate> candidates) {
+            super(null, candidates);
+        }
+
+        @Override
+        public boolean isVisible(double eyeX, double eyeY, double eyeZ, int lightX, int lightY, int lightZ) {
+            return true;
+        }
+    }
+}
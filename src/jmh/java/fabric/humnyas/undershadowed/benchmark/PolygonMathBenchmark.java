@@ -0,0 +1,85 @@
+package fabric.humnyas.undershadowed.benchmark;
+
+import fabric.humnyas.undershadowed.math.PolygonMath;
+import fabric.humnyas.undershadowed.math.Vec2fPolygonMath;
+import net.minecraft.util.math.Vec2f;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// The polygon primitives on their own, with inputs about as big as one bone and one merged shadow outline
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PolygonMathBenchmark {
+    @Param({"8", "32"})
+    public int pointCount;
+
+    private float[] cloud, cloudScratch, hull;
+    private float[] outline; // A star shaped polygon, so triangulating it has to ear clip
+    private List<Vec2f> cloudList, outlineList;
+    private int[] triangles, triangleScratch;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(pointCount);
+
+        // Corners of a flattened bone, with the near duplicates flattening produces
+        cloud = new float[pointCount * 2];
+        cloudList = new ArrayList<>();
+        for (int i = 0; i < pointCount; i++) {
+            float x = random.nextInt(4) * 0.25f + random.nextFloat() * 1e-3f, y = random.nextInt(4) * 0.5f;
+            cloud[i * 2] = x;
+            cloud[i * 2 + 1] = y;
+            cloudList.add(new Vec2f(x, y));
+        }
+        cloudScratch = new float[cloud.length];
+        hull = new float[(pointCount + 1) * 2];
+
+        outline = new float[pointCount * 2];
+        outlineList = new ArrayList<>();
+        for (int i = 0; i < pointCount; i++) {
+            double angle = 2 * Math.PI * i / pointCount;
+            float radius = i % 2 == 0 ? 1 : 0.5f;
+            float x = (float) (Math.cos(angle) * radius), y = (float) (Math.sin(angle) * radius);
+            outline[i * 2] = x;
+            outline[i * 2 + 1] = y;
+            outlineList.add(new Vec2f(x, y));
+        }
+        triangles = new int[(pointCount - 2) * 3];
+        triangleScratch = new int[pointCount * 3];
+    }
+
+    @Benchmark
+    public int convexHull() {
+        System.arraycopy(cloud, 0, cloudScratch, 0, cloud.length); // The hull sorts its input in place
+        return PolygonMath.convexHull(cloudScratch, pointCount, hull);
+    }
+
+    @Benchmark
+    public List<Vec2f> convexHullList() {
+        return Vec2fPolygonMath.convexHull(new ArrayList<>(cloudList));
+    }
+
+    @Benchmark
+    public int removeNearDuplicates() {
+        System.arraycopy(cloud, 0, cloudScratch, 0, cloud.length);
+        return PolygonMath.removeNearDuplicates(cloudScratch, pointCount, 1e-2f);
+    }
+
+    @Benchmark
+    public int triangulate() {
+        return PolygonMath.triangulate(outline, 0, pointCount, triangles, triangleScratch);
+    }
+
+    @Benchmark
+    public List<List<Vec2f>> earClipPolygonList() {
+        return Vec2fPolygonMath.earClipPolygon(outlineList);
+    }
+}
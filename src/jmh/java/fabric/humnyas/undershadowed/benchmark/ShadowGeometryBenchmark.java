@@ -0,0 +1,76 @@
+package fabric.humnyas.undershadowed.benchmark;
+
+import fabric.humnyas.undershadowed.core.ShadowCore;
+import fabric.humnyas.undershadowed.core.ShadowJob;
+import fabric.humnyas.undershadowed.geometry.ShadowArena;
+import fabric.humnyas.undershadowed.geometry.ShadowPolygonCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static fabric.humnyas.undershadowed.geometry.ShadowGeometry.*;
+
+// One uncached shadow, from packed bones to triangles, for the sun and one torch
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShadowGeometryBenchmark {
+    private static final float[] ANGLES = {-90, 60, 135, 20}; // Horizontal and vertical pairs, the sun then a torch
+
+    @Param({"biped", "quadruped", "modded"})
+    public String model;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    private float[] bones;
+    private int boneCount;
+    private float bodyYaw = 30;
+    private ShadowArena arena;
+    private ShadowJob job;
+
+    @Setup
+    public void setup() {
+        bones = switch (model) {
+            case "biped" -> BoneSets.biped();
+            case "quadruped" -> BoneSets.quadruped();
+            default -> BoneSets.modded();
+        };
+        boneCount = BoneSets.getBoneCount(bones);
+
+        // Machines without the vector kernel measure the scalar one under its name, said here so it isn't mistaken for it
+        if (setVectorKernel(kernel.equals("vector")) != kernel.equals("vector")) {
+            System.out.println("The vector kernel needs --add-modules jdk.incubator.vector and 256 bit vectors, measuring the scalar kernel instead");
+        }
+        arena = ShadowArena.get();
+
+        // Captured once like an entity would be, the size and offset are measured from the bones
+        job = new ShadowJob();
+        job.model = new Object();
+        job.size = job.centerBottomOffset = Float.NaN;
+        ShadowCore.capturePose(new AnimatedPose(bones), bodyYaw, Integer.MAX_VALUE, job);
+
+        job.ensureAngles(ANGLES.length / 2);
+        System.arraycopy(ANGLES, 0, job.angles, 0, ANGLES.length);
+        job.sourceCount = ANGLES.length / 2;
+    }
+
+    @Benchmark
+    public int vertices() {
+        getVertices(bones, boneCount, bodyYaw, arena);
+        return arena.cornerX.length;
+    }
+
+    // ShadowCore.buildShadow on a cache miss. The cache only ever holds this jobs two shadows, so clearing it is cheap
+    @Benchmark
+    public int fullChain() {
+        ShadowPolygonCache.clear();
+        job.triangleVertexCount = 0;
+
+        ShadowCore.buildShadow(job);
+        return job.triangleVertexCount;
+    }
+}
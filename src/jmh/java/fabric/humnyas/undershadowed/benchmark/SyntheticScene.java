@@ -0,0 +1,92 @@
+package fabric.humnyas.undershadowed.benchmark;
+
+import fabric.humnyas.undershadowed.core.LightView;
+import fabric.humnyas.undershadowed.core.ShadowProfiler;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+// An endless lit hall made up from the coordinates alone: a torch grid at head height, stone pillars and walls with
+// doorways between the torches. Immutable, so every driver thread can read it at once
+public class SyntheticScene implements LightView {
+    private static final int
+            TORCH_SPACING = 12, TORCH_Y = 2, TORCH_LUMINANCE = 14,
+            PILLAR_SPACING = 7, WALL_SPACING = 24, DOOR_SPACING = 5,
+            HEIGHT = 4; // Nothing above this is solid
+
+    @Override
+    public void collectEmitters(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, IntList out) {
+        if (TORCH_Y < minY || TORCH_Y > maxY) return;
+
+        for (int x = ceilTo(minX, TORCH_SPACING); x <= maxX; x += TORCH_SPACING) {
+            for (int z = ceilTo(minZ, TORCH_SPACING); z <= maxZ; z += TORCH_SPACING) {
+                out.add(x);
+                out.add(TORCH_Y);
+                out.add(z);
+                out.add(TORCH_LUMINANCE);
+            }
+        }
+    }
+
+    @Override
+    public boolean isVisible(double eyeX, double eyeY, double eyeZ, int lightX, int lightY, int lightZ) {
+        long start = ShadowProfiler.start();
+        boolean visible = walkRay(eyeX, eyeY, eyeZ, lightX, lightY, lightZ);
+        ShadowProfiler.end(ShadowProfiler.Stage.RAYCAST, start);
+        return visible;
+    }
+
+    // Walks every block the ray passes through, like a raycast against full cubes
+    private boolean walkRay(double eyeX, double eyeY, double eyeZ, int lightX, int lightY, int lightZ) {
+        double
+                dx = lightX + 0.5 - eyeX,
+                dy = lightY + 0.5 - eyeY,
+                dz = lightZ + 0.5 - eyeZ;
+        int
+                x = (int) Math.floor(eyeX),
+                y = (int) Math.floor(eyeY),
+                z = (int) Math.floor(eyeZ),
+                stepX = dx > 0 ? 1 : -1,
+                stepY = dy > 0 ? 1 : -1,
+                stepZ = dz > 0 ? 1 : -1;
+
+        // Ray progress from 0 to 1, per block on each axis and up to the next block boundary
+        double
+                deltaX = dx == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / dx),
+                deltaY = dy == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / dy),
+                deltaZ = dz == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / dz),
+                nextX = deltaX * (dx > 0 ? x + 1 - eyeX : eyeX - x),
+                nextY = deltaY * (dy > 0 ? y + 1 - eyeY : eyeY - y),
+                nextZ = deltaZ * (dz > 0 ? z + 1 - eyeZ : eyeZ - z);
+
+        while (x != lightX || y != lightY || z != lightZ) {
+            if (isSolid(x, y, z)) return false;
+
+            if (nextX < nextY && nextX < nextZ) {
+                if (nextX > 1) break;
+                x += stepX;
+                nextX += deltaX;
+            } else if (nextY < nextZ) {
+                if (nextY > 1) break;
+                y += stepY;
+                nextY += deltaY;
+            } else {
+                if (nextZ > 1) break;
+                z += stepZ;
+                nextZ += deltaZ;
+            }
+        }
+        return true;
+    }
+
+    public boolean isSolid(int x, int y, int z) {
+        if (y < 0 || y >= HEIGHT) return false;
+
+        boolean pillar = Math.floorMod(x, PILLAR_SPACING) == 3 && Math.floorMod(z, PILLAR_SPACING) == 3;
+        boolean wall = Math.floorMod(x, WALL_SPACING) == WALL_SPACING / 2 && y < 3 && Math.floorMod(z, DOOR_SPACING) != 0;
+        return pillar || wall;
+    }
+
+    // The smallest multiple of step that is at least value
+    private static int ceilTo(int value, int step) {
+        return Math.floorDiv(value + step - 1, step) * step;
+    }
+}
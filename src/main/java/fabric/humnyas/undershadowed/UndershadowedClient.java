@@ -1,26 +1,109 @@
 package fabric.humnyas.undershadowed;
 
+import fabric.humnyas.undershadowed.core.EntityShadowState;
+import fabric.humnyas.undershadowed.core.LightEmitterIndex;
+import fabric.humnyas.undershadowed.core.ShadowConfig;
 import fabric.humnyas.undershadowed.core.ShadowEngine;
+import fabric.humnyas.undershadowed.core.ShadowEvents.FrameEvent;
+import fabric.humnyas.undershadowed.core.ShadowPass;
+import fabric.humnyas.undershadowed.core.ShadowProfiler;
+import fabric.humnyas.undershadowed.geometry.ShadowGeometry;
+import fabric.humnyas.undershadowed.render.ColumnSampler;
+import fabric.humnyas.undershadowed.render.LightVisibilityCache;
+import fabric.humnyas.undershadowed.render.ShadowCuller;
+import fabric.humnyas.undershadowed.render.ShadowDebugOverlay;
+import fabric.humnyas.undershadowed.render.ShadowRenderer;
+import fabric.humnyas.undershadowed.render.TextureAlphaCache;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientChunkEvents;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientEntityEvents;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
+import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.world.ClientWorld;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.LivingEntity;
+import net.minecraft.resource.ResourceType;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class UndershadowedClient implements ClientModInitializer {
 	@Override
 	public void onInitializeClient() {
+		ShadowConfig.load();
+		ShadowProfiler.setEnabled(ShadowConfig.profiler);
+		if (ShadowGeometry.setVectorKernel(ShadowConfig.vectorGeometry)) Undershadowed.LOGGER.info("Using the Vector API for the shadow geometry");
+
+		// Measures the entity texture alpha in the background whenever resources reload
+		ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(new TextureAlphaCache());
+
+		// Keeps the light emitter index and the light visibility cache in sync with the chunks the client has loaded
+		ClientChunkEvents.CHUNK_LOAD.register(LightEmitterIndex::onChunkLoad);
+		ClientChunkEvents.CHUNK_UNLOAD.register(LightEmitterIndex::onChunkUnload);
+		ClientChunkEvents.CHUNK_LOAD.register(LightVisibilityCache::onChunkChanged);
+		ClientChunkEvents.CHUNK_UNLOAD.register(LightVisibilityCache::onChunkChanged);
+
+		// Column samples are only valid for the tick they were taken in
+		ClientTickEvents.END_CLIENT_TICK.register(client -> ColumnSampler.clear());
+
+		// Per entity state only lives as long as the entity is loaded
+		ClientEntityEvents.ENTITY_UNLOAD.register(EntityShadowState::onEntityUnload);
+		ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> {
+			EntityShadowState.clear();
+			ShadowPass.reset();
+		});
+
+		// Profiler overlay and /undershadowed profiler
+		HudRenderCallback.EVENT.register(ShadowDebugOverlay::render);
+		ClientCommandRegistrationCallback.EVENT.register((dispatcher, registryAccess) -> ShadowDebugOverlay.registerCommand(dispatcher));
+
 		// At the end of every tick, goes through every entity and adds custom shadows to them
 		WorldRenderEvents.AFTER_ENTITIES.register((context) -> {
 			MinecraftClient client = MinecraftClient.getInstance();
 			ClientWorld world = client.world;
 			if (world == null) return;
+			if (EntityShadowState.onWorld(world)) ShadowPass.reset(); // Jobs from the last world are at its coordinates
+
+			long frameStart = ShadowProfiler.start();
+			ShadowProfiler.count(ShadowProfiler.Counter.FRAMES, 1);
+			FrameEvent event = new FrameEvent();
+			event.begin();
 
-			for (Entity entity : client.world.getEntities()) {
-				if (entity instanceof LivingEntity) {
-					ShadowEngine.makeShadow(entity, context);
-				}
+			List<Entity> entities = new ArrayList<>();
+			for (Entity entity : world.getEntities()) {
+				if (entity instanceof LivingEntity) entities.add(entity);
+			}
+
+			// Off-screen shadows skip the light refresh and the geometry entirely
+			int loaded = entities.size();
+			long cullStart = ShadowProfiler.start();
+			ShadowCuller.cull(world, entities, context.frustum());
+			ShadowProfiler.end(ShadowProfiler.Stage.CULL, cullStart);
+
+			long refreshStart = ShadowProfiler.start();
+			ShadowEngine.refreshLightSources(world, entities, context.camera().getPos());
+			ShadowProfiler.end(ShadowProfiler.Stage.LIGHT_REFRESH, refreshStart);
+
+			ShadowPass.run(entities, context.camera().getPos(), client.getTickDelta());
+
+			// One draw call for every shadow of the frame
+			int triangles = ShadowRenderer.getQueuedVertexCount() / 3;
+			ShadowRenderer.flush(context.matrixStack());
+			ShadowProfiler.end(ShadowProfiler.Stage.FRAME, frameStart);
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.entities = loaded;
+				event.culled = loaded - entities.size();
+				event.shadows = ShadowPass.getShadowCount();
+				event.triangles = triangles;
+				event.parallel = ShadowConfig.parallelShadowGeometry;
+				event.commit();
 			}
 		});
 	}
@@ -30,29 +113,92 @@ public class UndershadowedClient implements ClientModInitializer {
 			v java
 				v fabric.humnyas.undershadowed
 					v core
+						ChunkSnapshotView.class
+						EntityShadowState.class
+						LightDiscoveryWorker.class
+						LightEmitterIndex.class
+						LightRefreshScheduler.class
+						LightSearch.class
+						LightView.class
+						ShadowConfig.class
+						ShadowCore.class
 						ShadowDataRegistry.class
 						ShadowEngine.class
+						ShadowEvents.class
+						ShadowJob.class
+						ShadowLod.class
+						ShadowPass.class
+						ShadowProfiler.class
 					v geometry
-						PolygonMath.class
-						ShadowDataUtils.class
+						CornerKernel.class
+						ModelDataExtractor.class
+						ModelHierarchy.class
+						PoseSource.class
+						ScalarCornerKernel.class
+						ShadowArena.class
 						ShadowGeometry.class
-					> mixin
+						ShadowPolygonCache.class
+						VectorCornerKernel.class
+					v math
+						PolygonBuffer.class
+						PolygonMath.class
+						PolygonSink.class
+					v mixin
+						ClientWorldMixin.class
+						ModelPartAccessor.class
 					v render
+						ColumnSampler.class
 						LightSourceHelper.class
+						LightVisibilityCache.class
+						ShadowCuller.class
+						ShadowDebugOverlay.class
 						ShadowRenderer.class
+						TextureAlphaCache.class
 						TransparencyCalculator.class
+						WorldLightView.class
 					UndershadowedClient.class
 			> resources
 
 		Where
+			ChunkSnapshotView - Immutable copy of the blocks around an area, for raycasts off the render thread
+			EntityShadowState - Everything remembered about one entity, dropped when it unloads
+			LightDiscoveryWorker - Runs the light raycasts on background threads when asyncLightDiscovery is on
+			LightEmitterIndex - Keeps track of every luminous block in the loaded chunks
+			LightRefreshScheduler - Spreads light source refreshes over frames within a time budget
+			LightSearch - Light reach, angle and search math that works on any LightView
+			LightView - The emitters and occluders the light search needs, without a Minecraft world
+			ShadowConfig - Loads the options from config/undershadowed.properties
+			ShadowCore - Builds shadows from any pose into any polygon sink, without touching Minecraft
 			ShadowDataRegistry - Holds important data, maps and records
 			ShadowEngine - Entry point for the shadow rendering
-			PolygonMath - Holds mathematical functions, like earClipping
-			ShadowDataUtils - Has methods which get data for rendering shadows
+			ShadowEvents - Java Flight Recorder events for frames, light refreshes and texture alpha
+			ShadowJob - Snapshot of one entities shadow inputs, built on any thread
+			ShadowLod - Picks the shadow level of detail from the distance to the camera
+			ShadowPass - Builds the shadows of a frame, serially or on a thread pool
+			ShadowProfiler - Lock free timers and counters for every stage of the pipeline
+			ClientWorldMixin - Forwards client block changes to the light caches
+			ModelPartAccessor - Exposes the cuboids and children of model parts
+			PolygonBuffer - Packed 2D polygons sharing one float array
+			PolygonMath - Holds mathematical functions, like earClipping and the silhouette union
+			PolygonSink - Receives the triangles of a finished shadow
+			CornerKernel - The bulk corner transform, projection and rotation loops
+			ModelDataExtractor - Has methods which get data for rendering shadows
+			ModelHierarchy - A models part tree, flattened into arrays once and posed into bones
+			PoseSource - Anything that can be posed into packed bones
+			ScalarCornerKernel - The corner loops in plain Java
+			ShadowArena - Per-thread scratch buffers reused by the whole shadow pipeline
 			ShadowGeometry - Manipulates the vertices so the shadows can react to the environment
+			ShadowPolygonCache - Keeps finished shadow polygons for poses and light angles that were seen recently
+			VectorCornerKernel - The corner loops on the incubating Vector API, used when the JVM allows it
+			ColumnSampler - Shares the floor distance and light level of a block column for one tick
 			LightSourceHelper - Calculates data like the angles to nearby light sources
-			ShadowRenderer - Holds methods to actually render the shadow
+			LightVisibilityCache - Remembers which lights can be seen from which blocks
+			ShadowCuller - Skips entities whose shadow is outside the view frustum
+			ShadowDebugOverlay - Draws the profiler on screen and adds the profiler command
+			ShadowRenderer - Queues the shadows of a frame and draws them in one batch
+			TextureAlphaCache - Measures the entity texture alpha on reload and keeps it on disk
 			TransparencyCalculator - Calculates data like the transparency of the shadow
+			WorldLightView - The client world as a LightView, over the region candidates and the visibility cache
 			UndershadowedClient - Main entry point for the mod
 	*/
 }
\ No newline at end of file
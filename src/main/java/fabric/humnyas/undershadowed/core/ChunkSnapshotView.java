@@ -0,0 +1,106 @@
+package fabric.humnyas.undershadowed.core;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.fluid.FluidState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.BlockView;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.chunk.PalettedContainer;
+import org.jetbrains.annotations.Nullable;
+
+// An immutable copy of the block palettes around an area, so raycasts can run off the render thread
+public class ChunkSnapshotView implements BlockView {
+    // Copies are shared by every snapshot taken in the same tick, nothing writes to them after copying
+    private static final Long2ObjectMap<PalettedContainer<BlockState>> SECTION_COPIES = new Long2ObjectOpenHashMap<>();
+    private static World copiedWorld;
+    private static long copiedTick = Long.MIN_VALUE;
+
+    private final Long2ObjectMap<PalettedContainer<BlockState>> sections;
+    private final int bottomY, height;
+
+    private ChunkSnapshotView(Long2ObjectMap<PalettedContainer<BlockState>> sections, int bottomY, int height) {
+        this.sections = sections;
+        this.bottomY = bottomY;
+        this.height = height;
+    }
+
+    // Must be called on the render thread, blocks outside the box read as air
+    public static ChunkSnapshotView capture(World world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (world != copiedWorld || world.getTime() != copiedTick) {
+            SECTION_COPIES.clear();
+            copiedWorld = world;
+            copiedTick = world.getTime();
+        }
+
+        Long2ObjectMap<PalettedContainer<BlockState>> sections = new Long2ObjectOpenHashMap<>();
+        int
+                minSectionY = Math.max(ChunkSectionPos.getSectionCoord(minY), world.getBottomSectionCoord()),
+                maxSectionY = Math.min(ChunkSectionPos.getSectionCoord(maxY), world.getTopSectionCoord() - 1);
+
+        for (int sectionX = ChunkSectionPos.getSectionCoord(minX); sectionX <= ChunkSectionPos.getSectionCoord(maxX); sectionX++) {
+            for (int sectionZ = ChunkSectionPos.getSectionCoord(minZ); sectionZ <= ChunkSectionPos.getSectionCoord(maxZ); sectionZ++) {
+                Chunk chunk = world.getChunk(sectionX, sectionZ, ChunkStatus.FULL, false);
+                if (chunk == null) continue;
+
+                for (int sectionY = minSectionY; sectionY <= maxSectionY; sectionY++) {
+                    long sectionKey = ChunkSectionPos.asLong(sectionX, sectionY, sectionZ);
+                    PalettedContainer<BlockState> copy = SECTION_COPIES.get(sectionKey);
+
+                    if (copy == null) {
+                        ChunkSection section = chunk.getSection(chunk.sectionCoordToIndex(sectionY));
+                        if (section.isEmpty()) continue;
+
+                        copy = section.getBlockStateContainer().copy();
+                        SECTION_COPIES.put(sectionKey, copy);
+                    }
+
+                    sections.put(sectionKey, copy);
+                }
+            }
+        }
+
+        return new ChunkSnapshotView(sections, world.getBottomY(), world.getHeight());
+    }
+
+    // Called when a block changes, so later snapshots in the same tick see it
+    public static void invalidate(BlockPos pos) {
+        SECTION_COPIES.remove(ChunkSectionPos.toLong(pos));
+    }
+
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        PalettedContainer<BlockState> section = sections.get(ChunkSectionPos.toLong(pos));
+        if (section == null) return Blocks.AIR.getDefaultState();
+
+        return section.get(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+    }
+
+    @Override
+    public FluidState getFluidState(BlockPos pos) {
+        return getBlockState(pos).getFluidState();
+    }
+
+    @Nullable
+    @Override
+    public BlockEntity getBlockEntity(BlockPos pos) {
+        return null;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getBottomY() {
+        return bottomY;
+    }
+}
@@ -0,0 +1,66 @@
+package fabric.humnyas.undershadowed.core;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Everything remembered about one entity between frames. Kept in ENTITY_STATES by entity id and dropped when the
+// entity unloads or the world changes, so mobs that are gone don't stay reachable
+public class EntityShadowState {
+    public static final long NEVER_UPDATED = Long.MIN_VALUE;
+
+    private static World stateWorld;
+
+    // Written by the light workers as well as the render thread
+    public volatile @Nullable List<Vec3d> sourcePositions; // Null until the first light search has finished
+    public volatile long lastUpdateTick = NEVER_UPDATED;
+    public final AtomicBoolean lightSearchRunning = new AtomicBoolean();
+
+    // Render thread only
+    public float baseShadowHeight = Float.NaN, baseShadowOffset = Float.NaN; // Size of the shadow before warping
+    public float lastBodyYaw = Float.NaN;
+    public @Nullable ShadowLod.Tier lodTier;
+
+    // Creates the state on first use, only called from the render thread. Workers are handed the state itself
+    public static EntityShadowState get(Entity entity) {
+        EntityShadowState state = ENTITY_STATES.get(entity.getId());
+        if (state == null) {
+            state = new EntityShadowState();
+            ENTITY_STATES.put(entity.getId(), state);
+        }
+        return state;
+    }
+
+    // Doesn't create a state for entities that haven't been seen yet
+    public static @Nullable EntityShadowState peek(Entity entity) {
+        return ENTITY_STATES.get(entity.getId());
+    }
+
+    public static void onEntityUnload(Entity entity, ClientWorld world) {
+        ENTITY_STATES.remove(entity.getId());
+    }
+
+    // Entity ids start over in a new world, so nothing from the old one can be kept. Returns whether the world changed
+    public static boolean onWorld(World world) {
+        if (world == stateWorld) return false;
+
+        ENTITY_STATES.clear();
+        stateWorld = world;
+        return true;
+    }
+
+    public static void clear() {
+        ENTITY_STATES.clear();
+        stateWorld = null;
+    }
+
+    public static int size() {
+        return ENTITY_STATES.size();
+    }
+}
@@ -0,0 +1,126 @@
+package fabric.humnyas.undershadowed.core;
+
+import fabric.humnyas.undershadowed.Undershadowed;
+import fabric.humnyas.undershadowed.core.ShadowEvents.LightRefreshEvent;
+import fabric.humnyas.undershadowed.render.LightSourceHelper;
+import fabric.humnyas.undershadowed.render.LightSourceHelper.LightCandidate;
+import fabric.humnyas.undershadowed.render.LightVisibilityCache;
+import fabric.humnyas.undershadowed.render.LightVisibilityCache.RayKey;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.hit.HitResult;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.RaycastContext;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Background mode for the light search. The render thread only does the cheap part (candidates, reach, cached rays)
+// and snapshots the chunks, the raycasts run on a worker and the result is published straight into the entities state
+public class LightDiscoveryWorker {
+    private record PendingRay(RayKey key, RaycastContext context, Vec3d lightCenter) {}
+
+    private static ExecutorService executor;
+
+    public static void submit(World world, Entity entity, EntityShadowState state, List<LightCandidate> candidates, long time) {
+        if (!state.lightSearchRunning.compareAndSet(false, true)) return; // Picked up again once the running search finishes
+        state.lastUpdateTick = time;
+
+        LightRefreshEvent event = new LightRefreshEvent();
+        event.begin();
+
+        BlockPos entityBlockPos = entity.getBlockPos();
+        Vec3d
+                entityPos = entity.getPos(),
+                eyePos = entity.getEyePos();
+
+        List<Vec3d> lightPositions = new ArrayList<>();
+        List<PendingRay> pending = new ArrayList<>();
+        int
+                minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE,
+                maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+        for (LightCandidate candidate : candidates) {
+            if (!LightSourceHelper.isInReach(entityBlockPos, entityPos, candidate)) continue;
+
+            RayKey key = LightVisibilityCache.getKey(eyePos, candidate.pos());
+            Boolean cached = LightVisibilityCache.get(world, key);
+
+            if (cached != null) {
+                if (cached) lightPositions.add(candidate.center());
+                continue;
+            }
+
+            // The context reads the entity, so it has to be built here rather than on the worker
+            RaycastContext context = new RaycastContext(eyePos, candidate.center(), RaycastContext.ShapeType.COLLIDER, RaycastContext.FluidHandling.NONE, entity);
+            pending.add(new PendingRay(key, context, candidate.center()));
+
+            minX = Math.min(minX, LightVisibilityCache.minBound(key, 0));
+            minY = Math.min(minY, LightVisibilityCache.minBound(key, 1));
+            minZ = Math.min(minZ, LightVisibilityCache.minBound(key, 2));
+            maxX = Math.max(maxX, LightVisibilityCache.maxBound(key, 0));
+            maxY = Math.max(maxY, LightVisibilityCache.maxBound(key, 1));
+            maxZ = Math.max(maxZ, LightVisibilityCache.maxBound(key, 2));
+        }
+
+        // The entity can only be read on this thread, even when the event is committed from the worker
+        if (event.isEnabled()) {
+            event.setEntity(entity);
+            event.emittersScanned = candidates.size();
+            event.async = true;
+        }
+
+        if (pending.isEmpty()) {
+            state.sourcePositions = lightPositions;
+            state.lightSearchRunning.set(false);
+
+            event.lightsFound = lightPositions.size();
+            event.commit();
+            return;
+        }
+
+        ChunkSnapshotView snapshot = ChunkSnapshotView.capture(world, minX, minY, minZ, maxX, maxY, maxZ);
+        long epoch = LightVisibilityCache.getEpoch();
+
+        getExecutor().execute(() -> {
+            event.begin(); // Only the worker part, not the time spent queued
+            try {
+                for (PendingRay ray : pending) {
+                    long start = ShadowProfiler.start();
+                    boolean visible = snapshot.raycast(ray.context()).getType() == HitResult.Type.MISS;
+                    ShadowProfiler.end(ShadowProfiler.Stage.RAYCAST, start);
+                    LightVisibilityCache.put(ray.key(), visible, epoch);
+
+                    if (visible) lightPositions.add(ray.lightCenter());
+                }
+
+                state.sourcePositions = lightPositions;
+            } catch (RuntimeException e) {
+                Undershadowed.LOGGER.warn("Light search failed for {}", entity, e);
+            } finally {
+                state.lightSearchRunning.set(false);
+
+                event.raycasts = pending.size();
+                event.lightsFound = lightPositions.size();
+                event.commit();
+            }
+        });
+    }
+
+    private static ExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(Math.max(1, ShadowConfig.lightWorkerThreads), runnable -> {
+                Thread thread = new Thread(runnable, "Undershadowed Light Worker #" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
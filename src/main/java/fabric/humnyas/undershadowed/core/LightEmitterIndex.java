@@ -0,0 +1,204 @@
+package fabric.humnyas.undershadowed.core;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.BlockView;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.WorldChunk;
+import org.jetbrains.annotations.Nullable;
+
+// Luminous blocks per chunk section. The client world has one index, kept in sync by the chunk and block events below.
+// Worlds without those events, like the in-memory ones of the benchmarks, get a standalone one from scan
+public class LightEmitterIndex {
+    private static final LightEmitterIndex CLIENT = new LightEmitterIndex();
+    private static BlockView indexedWorld;
+
+    // Luminous block positions (BlockPos.asLong) for every chunk section that has any, keyed by ChunkSectionPos.asLong
+    private final Long2ObjectMap<LongSet> emitters = new Long2ObjectOpenHashMap<>();
+    private int version; // Bumped on every change, so anything derived from the index knows when it is stale
+
+    private LightEmitterIndex() {}
+
+    // The index of the client world, or null when the world isn't the one being indexed
+    public static @Nullable LightEmitterIndex forWorld(BlockView world) {
+        return world == indexedWorld ? CLIENT : null;
+    }
+
+    // A standalone index of every luminous block inside the box (inclusive, in block coordinates), read block by block
+    public static LightEmitterIndex scan(BlockView world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        LightEmitterIndex index = new LightEmitterIndex();
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    if (world.getBlockState(pos.set(x, y, z)).getLuminance() > 0) index.add(pos.asLong());
+                }
+            }
+        }
+        return index;
+    }
+
+    // Scans a freshly loaded chunk once, so later queries never have to touch its blocks
+    public static void onChunkLoad(ClientWorld world, WorldChunk chunk) {
+        setWorld(world);
+
+        ChunkPos chunkPos = chunk.getPos();
+        ChunkSection[] sections = chunk.getSectionArray();
+
+        for (int i = 0; i < sections.length; i++) {
+            int sectionY = chunk.sectionIndexToCoord(i);
+            long sectionKey = ChunkSectionPos.asLong(chunkPos.x, sectionY, chunkPos.z);
+            CLIENT.emitters.remove(sectionKey); // The chunk may be re-sent by the server
+
+            ChunkSection section = sections[i];
+            if (section.isEmpty() || !section.hasAny(state -> state.getLuminance() > 0)) continue;
+
+            int
+                    baseX = chunkPos.getStartX(),
+                    baseY = ChunkSectionPos.getBlockCoord(sectionY),
+                    baseZ = chunkPos.getStartZ();
+
+            LongSet sectionEmitters = new LongOpenHashSet();
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        if (section.getBlockState(x, y, z).getLuminance() > 0) {
+                            sectionEmitters.add(BlockPos.asLong(baseX + x, baseY + y, baseZ + z));
+                        }
+                    }
+                }
+            }
+
+            if (!sectionEmitters.isEmpty()) CLIENT.emitters.put(sectionKey, sectionEmitters);
+        }
+        CLIENT.version++;
+    }
+
+    public static void onChunkUnload(ClientWorld world, WorldChunk chunk) {
+        if (world != indexedWorld) return;
+
+        ChunkPos chunkPos = chunk.getPos();
+        for (int i = 0; i < chunk.countVerticalSections(); i++) {
+            CLIENT.emitters.remove(ChunkSectionPos.asLong(chunkPos.x, chunk.sectionIndexToCoord(i), chunkPos.z));
+        }
+        CLIENT.version++;
+    }
+
+    // Called from ClientWorld#updateListeners for every block change the client sees
+    public static void onBlockChanged(World world, BlockPos pos, BlockState oldState, BlockState newState) {
+        if (world != indexedWorld) return;
+
+        int
+                oldLuminance = oldState.getLuminance(),
+                newLuminance = newState.getLuminance();
+        if (oldLuminance == newLuminance) return;
+
+        if (newLuminance > 0) CLIENT.add(pos.asLong());
+        else CLIENT.remove(pos.asLong());
+
+        // Entities that could see this block pick up the change on their next frame instead of waiting for UPDATE_INTERVAL
+        for (Entity entity : world.getOtherEntities(null, new Box(pos).expand(SOURCE_BLOCK_RADIUS + 1))) {
+            if (!isWithinSourceRadius(entity, pos)) continue;
+
+            EntityShadowState state = EntityShadowState.peek(entity);
+            if (state != null) state.lastUpdateTick = EntityShadowState.NEVER_UPDATED;
+        }
+    }
+
+    // Adds every indexed emitter inside the cube of the given radius around center to out
+    public void collectEmitters(BlockPos center, int radius, LongList out) {
+        collectEmitters(
+                center.getX() - radius, center.getY() - radius, center.getZ() - radius,
+                center.getX() + radius, center.getY() + radius, center.getZ() + radius,
+                out
+        );
+    }
+
+    // Adds every indexed emitter inside the box (inclusive, in block coordinates) to out
+    public void collectEmitters(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, LongList out) {
+        for (int sectionX = ChunkSectionPos.getSectionCoord(minX); sectionX <= ChunkSectionPos.getSectionCoord(maxX); sectionX++) {
+            for (int sectionY = ChunkSectionPos.getSectionCoord(minY); sectionY <= ChunkSectionPos.getSectionCoord(maxY); sectionY++) {
+                for (int sectionZ = ChunkSectionPos.getSectionCoord(minZ); sectionZ <= ChunkSectionPos.getSectionCoord(maxZ); sectionZ++) {
+                    LongSet sectionEmitters = emitters.get(ChunkSectionPos.asLong(sectionX, sectionY, sectionZ));
+                    if (sectionEmitters == null) continue;
+
+                    LongIterator iterator = sectionEmitters.iterator();
+                    while (iterator.hasNext()) {
+                        long packed = iterator.nextLong();
+                        int
+                                x = BlockPos.unpackLongX(packed),
+                                y = BlockPos.unpackLongY(packed),
+                                z = BlockPos.unpackLongZ(packed);
+
+                        if (x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ) {
+                            out.add(packed);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(long pos) {
+        long sectionKey = getSectionKey(pos);
+        LongSet sectionEmitters = emitters.get(sectionKey);
+        if (sectionEmitters == null) {
+            sectionEmitters = new LongOpenHashSet();
+            emitters.put(sectionKey, sectionEmitters);
+        }
+        sectionEmitters.add(pos);
+        version++;
+    }
+
+    private void remove(long pos) {
+        long sectionKey = getSectionKey(pos);
+        LongSet sectionEmitters = emitters.get(sectionKey);
+        if (sectionEmitters != null) {
+            sectionEmitters.remove(pos);
+            if (sectionEmitters.isEmpty()) emitters.remove(sectionKey);
+        }
+        version++;
+    }
+
+    private static long getSectionKey(long pos) {
+        return ChunkSectionPos.asLong(
+                ChunkSectionPos.getSectionCoord(BlockPos.unpackLongX(pos)),
+                ChunkSectionPos.getSectionCoord(BlockPos.unpackLongY(pos)),
+                ChunkSectionPos.getSectionCoord(BlockPos.unpackLongZ(pos))
+        );
+    }
+
+    // Switching worlds drops the whole index
+    private static void setWorld(BlockView world) {
+        if (world == indexedWorld) return;
+
+        CLIENT.emitters.clear();
+        indexedWorld = world;
+    }
+
+    // The version of the client index
+    public static int getVersion() {
+        return CLIENT.version;
+    }
+
+    private static boolean isWithinSourceRadius(Entity entity, BlockPos pos) {
+        BlockPos entityPos = entity.getBlockPos();
+        return Math.abs(entityPos.getX() - pos.getX()) <= SOURCE_BLOCK_RADIUS
+                && Math.abs(entityPos.getY() - pos.getY()) <= SOURCE_BLOCK_RADIUS
+                && Math.abs(entityPos.getZ() - pos.getZ()) <= SOURCE_BLOCK_RADIUS;
+    }
+}
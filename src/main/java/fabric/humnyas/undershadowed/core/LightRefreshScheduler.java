@@ -0,0 +1,70 @@
+package fabric.humnyas.undershadowed.core;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import fabric.humnyas.undershadowed.Undershadowed;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public class LightRefreshScheduler {
+    private record RefreshRequest(Entity entity, boolean neverRefreshed, double priority) {}
+
+    // Entities that were never refreshed (new ones, or ones next to a light that just changed) have no or wrong lights,
+    // they all go before the routine refreshes. Most urgent first within both, rebuilt every frame so waiting entities
+    // keep getting more urgent
+    private static final PriorityQueue<RefreshRequest> QUEUE = new PriorityQueue<>(
+            Comparator.comparing(RefreshRequest::neverRefreshed).reversed()
+                    .thenComparing(Comparator.comparingDouble(RefreshRequest::priority).reversed())
+    );
+
+    private static int lastDeferred;
+    private static long totalDeferred;
+
+    // Spreads light refreshes over several frames instead of doing every due entity at once
+    public static void run(World world, List<Entity> entities, Vec3d cameraPos) {
+        long time = world.getTime();
+
+        QUEUE.clear();
+        for (Entity entity : entities) {
+            long lastTick = EntityShadowState.get(entity).lastUpdateTick;
+            boolean neverRefreshed = lastTick == EntityShadowState.NEVER_UPDATED;
+            if (!neverRefreshed && time - lastTick <= UPDATE_INTERVAL) continue;
+
+            QUEUE.add(new RefreshRequest(entity, neverRefreshed, getPriority(entity, lastTick, time, cameraPos)));
+        }
+
+        long start = System.nanoTime();
+        while (!QUEUE.isEmpty()) {
+            ShadowEngine.refreshLightSource(world, QUEUE.poll().entity(), time);
+            if (System.nanoTime() - start >= ShadowConfig.lightRefreshBudgetNanos) break;
+        }
+
+        lastDeferred = QUEUE.size();
+        QUEUE.clear();
+
+        if (lastDeferred > 0) {
+            totalDeferred += lastDeferred;
+            Undershadowed.LOGGER.debug("Deferred {} light refreshes to the next frame", lastDeferred);
+        }
+    }
+
+    // The stalest entities closest to the camera go first. Never refreshed ones are sorted by distance alone
+    private static double getPriority(Entity entity, long lastTick, long time, Vec3d cameraPos) {
+        double staleness = lastTick == EntityShadowState.NEVER_UPDATED ? UPDATE_INTERVAL * 4 : time - lastTick;
+        double distance = Math.sqrt(entity.squaredDistanceTo(cameraPos));
+
+        return staleness / (1 + distance / 16);
+    }
+
+    public static int getLastDeferred() {
+        return lastDeferred;
+    }
+
+    public static long getTotalDeferred() {
+        return totalDeferred;
+    }
+}
@@ -0,0 +1,82 @@
+package fabric.humnyas.undershadowed.core;
+
+import fabric.humnyas.undershadowed.geometry.ShadowArena;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.SOURCE_BLOCK_RADIUS;
+
+// The light search without any world behind it. LightSourceHelper runs it on a WorldLightView, the headless driver on
+// synthetic LightViews. Views time their own raycasts
+public class LightSearch {
+    // Whether a light blockDx, blockDy, blockDz blocks away is inside the search cube and bright enough to reach
+    public static boolean isInReach(int blockDx, int blockDy, int blockDz, int luminance, double squaredDistance) {
+        if (Math.abs(blockDx) > SOURCE_BLOCK_RADIUS
+                || Math.abs(blockDy) > SOURCE_BLOCK_RADIUS
+                || Math.abs(blockDz) > SOURCE_BLOCK_RADIUS) return false;
+
+        return luminance * luminance > squaredDistance;
+    }
+
+    // Writes the horizontal and vertical angle towards a light at dx, dy, dz from the entity to out at the given pair index
+    public static void writeSourceAngle(double dx, double dy, double dz, float[] out, int index) {
+        // Horizontal angle
+        float horAngle = (float) Math.toDegrees(Math.atan2(dz, dx)) + 90;
+        if (horAngle < 0) horAngle += 360;
+
+        // Vertical angle
+        double horizontalDistance = Math.sqrt(dx * dx + dz * dz);
+        float vertAngle = (float) Math.toDegrees(Math.atan2(dy, horizontalDistance));
+
+        out[index * 2] = horAngle;
+        out[index * 2 + 1] = vertAngle;
+    }
+
+    // Appends x, y, z of every light in reach of x, y, z that can be seen from eyeY to out
+    public static void findLights(LightView view, double x, double y, double z, double eyeY, IntList out) {
+        int
+                blockX = (int) Math.floor(x),
+                blockY = (int) Math.floor(y),
+                blockZ = (int) Math.floor(z);
+
+        IntArrayList emitters = ShadowArena.get().emitters;
+        emitters.clear();
+        view.collectEmitters(
+                blockX - SOURCE_BLOCK_RADIUS, blockY - SOURCE_BLOCK_RADIUS, blockZ - SOURCE_BLOCK_RADIUS,
+                blockX + SOURCE_BLOCK_RADIUS, blockY + SOURCE_BLOCK_RADIUS, blockZ + SOURCE_BLOCK_RADIUS,
+                emitters
+        );
+
+        for (int i = 0; i < emitters.size(); i += 4) {
+            int lightX = emitters.getInt(i), lightY = emitters.getInt(i + 1), lightZ = emitters.getInt(i + 2);
+            double
+                    dx = lightX + 0.5 - x,
+                    dy = lightY + 0.5 - y,
+                    dz = lightZ + 0.5 - z;
+
+            if (!isInReach(lightX - blockX, lightY - blockY, lightZ - blockZ, emitters.getInt(i + 3), dx * dx + dy * dy + dz * dz)) continue;
+            if (!view.isVisible(x, eyeY, z, lightX, lightY, lightZ)) continue;
+
+            out.add(lightX);
+            out.add(lightY);
+            out.add(lightZ);
+        }
+    }
+
+    // Runs the search and appends the angle pair of every light found to job.angles, after the first sourceCount pairs.
+    // Returns the new pair count
+    public static int findLights(LightView view, double x, double y, double z, double eyeY, ShadowJob job, int sourceCount) {
+        IntArrayList lights = ShadowArena.get().lights;
+        lights.clear();
+        findLights(view, x, y, z, eyeY, lights);
+
+        int count = sourceCount;
+        job.ensureAngles(count + lights.size() / 3);
+        for (int i = 0; i < lights.size(); i += 3) {
+            writeSourceAngle(lights.getInt(i) + 0.5 - x, lights.getInt(i + 1) + 0.5 - y, lights.getInt(i + 2) + 0.5 - z, job.angles, count);
+            count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,13 @@
+package fabric.humnyas.undershadowed.core;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+
+// The light emitters and occluders of a world, as far as the light search needs them. Block coordinates are ints and
+// light positions are the center of their block
+public interface LightView {
+    // Appends x, y, z and luminance of every emitter inside the box (inclusive) to out
+    void collectEmitters(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, IntList out);
+
+    // Whether nothing solid is between the eye and the center of the light block
+    boolean isVisible(double eyeX, double eyeY, double eyeZ, int lightX, int lightY, int lightZ);
+}
@@ -0,0 +1,100 @@
+package fabric.humnyas.undershadowed.core;
+
+import fabric.humnyas.undershadowed.Undershadowed;
+import net.fabricmc.loader.api.FabricLoader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+public class ShadowConfig {
+    private static final Path CONFIG_PATH = FabricLoader.getInstance().getConfigDir().resolve(Undershadowed.MOD_ID + ".properties");
+
+    // Time per frame that may be spent refreshing light sources, the most urgent entity is always refreshed
+    public static long lightRefreshBudgetNanos = 500_000L;
+
+    // Runs the light raycasts on background threads against chunk snapshots instead of on the render thread
+    public static boolean asyncLightDiscovery = false;
+    public static int lightWorkerThreads = 2;
+
+    // Builds the shadow geometry on a thread pool, the shadows are drawn one frame after they were captured
+    public static boolean parallelShadowGeometry = true;
+    public static int geometryWorkerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    // Runs the bone corner math on the Vector API. Only takes effect when the game is started with the JVM argument
+    // --add-modules jdk.incubator.vector, plain loops are used otherwise
+    public static boolean vectorGeometry = true;
+
+    // Times every stage of the shadow pipeline, shown in the corner and by /undershadowed profiler. Can also be
+    // toggled in game with /undershadowed profiler on|off
+    public static boolean profiler = false;
+
+    // Shadow level of detail, in blocks from the camera. Full shadows up to lodNearDistance, only the biggest bones and
+    // the strongest light up to lodMidDistance, a plain ellipse up to lodCutoffDistance and nothing past that
+    public static int lodNearDistance = 24;
+    public static int lodMidDistance = 40;
+    public static int lodCutoffDistance = 64;
+    public static int lodHysteresis = 2; // How far past a boundary an entity has to move before it changes tier
+    public static int lodMidBoneCount = 4;
+
+    // Reads the config file, then writes it back so any missing options show up with their defaults
+    public static void load() {
+        Properties properties = new Properties();
+
+        if (Files.exists(CONFIG_PATH)) {
+            try (Reader reader = Files.newBufferedReader(CONFIG_PATH)) {
+                properties.load(reader);
+            } catch (IOException e) {
+                Undershadowed.LOGGER.warn("Failed to read {}, using defaults", CONFIG_PATH, e);
+            }
+        }
+
+        lightRefreshBudgetNanos = getLong(properties, "lightRefreshBudgetNanos", lightRefreshBudgetNanos);
+        asyncLightDiscovery = getBoolean(properties, "asyncLightDiscovery", asyncLightDiscovery);
+        lightWorkerThreads = (int) getLong(properties, "lightWorkerThreads", lightWorkerThreads);
+        parallelShadowGeometry = getBoolean(properties, "parallelShadowGeometry", parallelShadowGeometry);
+        geometryWorkerThreads = (int) getLong(properties, "geometryWorkerThreads", geometryWorkerThreads);
+        vectorGeometry = getBoolean(properties, "vectorGeometry", vectorGeometry);
+        profiler = getBoolean(properties, "profiler", profiler);
+        lodNearDistance = (int) getLong(properties, "lodNearDistance", lodNearDistance);
+        lodMidDistance = (int) getLong(properties, "lodMidDistance", lodMidDistance);
+        lodCutoffDistance = (int) getLong(properties, "lodCutoffDistance", lodCutoffDistance);
+        lodHysteresis = (int) getLong(properties, "lodHysteresis", lodHysteresis);
+        lodMidBoneCount = (int) getLong(properties, "lodMidBoneCount", lodMidBoneCount);
+
+        properties.setProperty("lightRefreshBudgetNanos", Long.toString(lightRefreshBudgetNanos));
+        properties.setProperty("asyncLightDiscovery", Boolean.toString(asyncLightDiscovery));
+        properties.setProperty("lightWorkerThreads", Integer.toString(lightWorkerThreads));
+        properties.setProperty("parallelShadowGeometry", Boolean.toString(parallelShadowGeometry));
+        properties.setProperty("geometryWorkerThreads", Integer.toString(geometryWorkerThreads));
+        properties.setProperty("vectorGeometry", Boolean.toString(vectorGeometry));
+        properties.setProperty("profiler", Boolean.toString(profiler));
+        properties.setProperty("lodNearDistance", Integer.toString(lodNearDistance));
+        properties.setProperty("lodMidDistance", Integer.toString(lodMidDistance));
+        properties.setProperty("lodCutoffDistance", Integer.toString(lodCutoffDistance));
+        properties.setProperty("lodHysteresis", Integer.toString(lodHysteresis));
+        properties.setProperty("lodMidBoneCount", Integer.toString(lodMidBoneCount));
+
+        try (Writer writer = Files.newBufferedWriter(CONFIG_PATH)) {
+            properties.store(writer, "Undershadowed");
+        } catch (IOException e) {
+            Undershadowed.LOGGER.warn("Failed to write {}", CONFIG_PATH, e);
+        }
+    }
+
+    private static boolean getBoolean(Properties properties, String key, boolean fallback) {
+        return Boolean.parseBoolean(properties.getProperty(key, Boolean.toString(fallback)).trim());
+    }
+
+    private static long getLong(Properties properties, String key, long fallback) {
+        try {
+            return Long.parseLong(properties.getProperty(key, Long.toString(fallback)).trim());
+        } catch (NumberFormatException e) {
+            Undershadowed.LOGGER.warn("Invalid value for {} in {}, using {}", key, CONFIG_PATH, fallback);
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package fabric.humnyas.undershadowed.core;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+import static fabric.humnyas.undershadowed.geometry.ShadowGeometry.*;
+import static fabric.humnyas.undershadowed.math.PolygonMath.unionConvex;
+
+import fabric.humnyas.undershadowed.geometry.PoseSource;
+import fabric.humnyas.undershadowed.geometry.ShadowArena;
+import fabric.humnyas.undershadowed.geometry.ShadowPolygonCache;
+import fabric.humnyas.undershadowed.math.PolygonBuffer;
+import fabric.humnyas.undershadowed.math.PolygonMath;
+import fabric.humnyas.undershadowed.math.PolygonSink;
+
+// The shadow pipeline from a pose to triangles, without touching Minecraft. ShadowEngine feeds it entities and
+// models, the headless driver in the jmh source set feeds it synthetic scenes
+public class ShadowCore {
+    // Poses the source and copies its bones into the job, keeping only the maxBones biggest ones. job.size and
+    // job.centerBottomOffset are measured on every bone when they are NaN, so callers can keep them per entity
+    public static void capturePose(PoseSource pose, float bodyYaw, int maxBones, ShadowJob job) {
+        ShadowArena arena = ShadowArena.get();
+        long start = ShadowProfiler.start();
+        int boneCount = pose.writeBones(arena);
+        ShadowProfiler.end(ShadowProfiler.Stage.MODEL, start);
+
+        // Measured before the bones are cut, so the base size doesn't change with the tier
+        if (Float.isNaN(job.size) || Float.isNaN(job.centerBottomOffset)) {
+            getVertices(arena.bones, boneCount, bodyYaw, arena);
+            job.size = getShadowHeight(arena.cornerY, boneCount * 8);
+            job.centerBottomOffset = getCenterBottomOffset(arena.cornerY, boneCount * 8);
+        }
+
+        boneCount = keepLargestBones(arena, boneCount, maxBones);
+
+        job.ensureBones(boneCount);
+        System.arraycopy(arena.bones, 0, job.bones, 0, boneCount * BONE_STRIDE);
+        job.boneCount = boneCount;
+        job.bodyYaw = bodyYaw;
+    }
+
+    // Builds and triangulates a captured shadow. Only touches the job, the arena of the calling thread and the polygon
+    // cache, so it can run on any thread
+    public static void buildShadow(ShadowJob job) {
+        long start = ShadowProfiler.start();
+        ShadowArena arena = ShadowArena.get();
+        PolygonBuffer totalVertices = arena.shadow;
+        totalVertices.clear();
+
+        if (job.silhouette != null) {
+            // Far tier, the silhouette turned away from the strongest light
+            totalVertices.addAll(job.silhouette);
+            rotateShadow(totalVertices, job.angles[0], 0);
+        } else {
+            buildBoneShadow(job, arena, totalVertices);
+        }
+
+        long triangulateStart = ShadowProfiler.start();
+        triangulate(totalVertices, arena, job);
+        ShadowProfiler.end(ShadowProfiler.Stage.TRIANGULATE, triangulateStart);
+
+        ShadowProfiler.count(ShadowProfiler.Counter.POLYGONS, totalVertices.getPolygonCount());
+        ShadowProfiler.count(ShadowProfiler.Counter.TRIANGLES, job.triangleVertexCount / 3);
+        ShadowProfiler.end(ShadowProfiler.Stage.BUILD, start);
+    }
+
+    // Triangulates the shadow polygons into the sink, safe to call from any thread
+    public static void triangulate(PolygonBuffer polygons, ShadowArena arena, PolygonSink sink) {
+        float[] coords = polygons.getCoords();
+
+        for (int i = 0; i < polygons.getPolygonCount(); i++) {
+            arena.ensureTriangles(polygons.getLength(i));
+            int indexCount = PolygonMath.triangulate(coords, polygons.getOffset(i), polygons.getLength(i), arena.triangles, arena.triangleScratch);
+
+            for (int j = 0; j < indexCount; j++) {
+                int point = arena.triangles[j];
+                sink.addTriangleVertex(coords[point * 2], coords[point * 2 + 1]);
+            }
+        }
+    }
+
+    // Adds the shadow polygons of every light to totalVertices, from the cache where possible
+    private static void buildBoneShadow(ShadowJob job, ShadowArena arena, PolygonBuffer totalVertices) {
+        long poseHash = ShadowPolygonCache.getPoseHash(job.bones, job.boneCount);
+        boolean verticesBuilt = false; // Only built when a shadow isn't cached
+
+        for (int i = 0; i < job.sourceCount; i++) {
+            float horizontalAngle = job.angles[i * 2], verticalAngle = job.angles[i * 2 + 1];
+
+            float morphedSize = morphShadowSize(job.size, verticalAngle);
+
+            PolygonBuffer squishedVertices = ShadowPolygonCache.get(job.model, poseHash, job.bodyYaw, horizontalAngle, verticalAngle, morphedSize, job.centerBottomOffset);
+            ShadowProfiler.count(squishedVertices != null ? ShadowProfiler.Counter.CACHE_HITS : ShadowProfiler.Counter.CACHE_MISSES, 1);
+
+            if (squishedVertices == null) {
+                if (!verticesBuilt) {
+                    getVertices(job.bones, job.boneCount, job.bodyYaw, arena);
+                    verticesBuilt = true;
+                }
+
+                long hullStart = ShadowProfiler.start();
+                flattenVertices(arena, job.boneCount, horizontalAngle, arena.flattened); // Flattens the vertices to the angle
+                pruneVertices(arena.flattened, arena.pruned, arena); // Removes redundant vertices
+                rotateShadow(arena.pruned, horizontalAngle, job.centerBottomOffset); // Rotates the shadow to face away from light source
+                ShadowProfiler.end(ShadowProfiler.Stage.HULL, hullStart);
+
+                long unionStart = ShadowProfiler.start();
+                unionConvex(arena.pruned, arena.merged, arena.unionScratch); // Merges the bone hulls so overlaps aren't drawn twice
+                ShadowProfiler.end(ShadowProfiler.Stage.UNION, unionStart);
+
+                squishShadow(arena.merged, morphedSize); // flattens / stretches the shadow to appear morphed in the way it should be expected
+
+                squishedVertices = arena.merged.copy();
+                ShadowPolygonCache.put(job.model, poseHash, job.bodyYaw, horizontalAngle, verticalAngle, morphedSize, job.centerBottomOffset, squishedVertices);
+            }
+
+            totalVertices.addAll(squishedVertices);
+        }
+    }
+}
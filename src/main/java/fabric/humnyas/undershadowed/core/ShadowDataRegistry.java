@@ -1,37 +1,52 @@
 package fabric.humnyas.undershadowed.core;
 
-import net.minecraft.entity.Entity;
+import fabric.humnyas.undershadowed.geometry.ModelHierarchy;
+import fabric.humnyas.undershadowed.math.PolygonBuffer;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.client.model.ModelPart;
+import net.minecraft.client.render.entity.EntityRenderer;
+import net.minecraft.entity.EntityType;
 import net.minecraft.util.Identifier;
-import net.minecraft.util.math.Vec3d;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.Field;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ShadowDataRegistry {
-    public record BoneDataRecord(
-            float posX, float posY, float posZ,
-            float pitch, float yaw, float roll,
-            float sizeX, float sizeY, float sizeZ
-    ) {}
-
-    // Makes it so expensive checks are run less often - stores the pre-computed results
-    public static final Map<Entity, List<Vec3d>> SOURCE_POSITIONS = new ConcurrentHashMap<>();
-    public static final Map<Entity, Long> LAST_UPDATE_TICK = new HashMap<>();
-
-    // Base height of an entities shadow before warping
-    public static final Map<Entity, Float> BASE_SHADOW_HEIGHT = new HashMap<>();
-    public static final Map<Entity, Float> BASE_SHADOW_OFFSET = new HashMap<>();
-
-    public static final Map<Entity, Float> LAST_BODY_YAW = new WeakHashMap<>();
+    // Layout of one bone in the packed bone arrays, BONE_STRIDE floats per bone. The position is the center of the
+    // bones box in model space and the rotations already include every parent part
+    public final static int
+            BONE_POS_X = 0, BONE_POS_Y = 1, BONE_POS_Z = 2,
+            BONE_PITCH = 3, BONE_YAW = 4, BONE_ROLL = 5,
+            BONE_SIZE_X = 6, BONE_SIZE_Y = 7, BONE_SIZE_Z = 8,
+            BONE_STRIDE = 9;
+
+    // Pulls the model out of a renderer, resolved once per entity type
+    @FunctionalInterface
+    public interface ModelAccessor {
+        @Nullable Object getModel(EntityRenderer<?> renderer);
+    }
+    public static final ModelAccessor NO_MODEL = renderer -> null; // Negative cache entry for types without a model
+
+    // Everything remembered per entity, keyed by entity id. See EntityShadowState for when entries are dropped
+    public static final Int2ObjectMap<EntityShadowState> ENTITY_STATES = Int2ObjectMaps.synchronize(new Int2ObjectOpenHashMap<>());
 
     // Caches data for each model that will stay the same indefinitely
-    public static final Map<Identifier, Float> ALPHA_CACHE = new HashMap<>();
+    public static final Map<Identifier, Float> ALPHA_CACHE = new ConcurrentHashMap<>(); // Filled on reload and by workers, see TextureAlphaCache
     public static final Map<Class<?>, Field[]> MODEL_FIELD_CACHE = new HashMap<>();
+    public static final Map<EntityType<?>, ModelAccessor> MODEL_ACCESSOR_CACHE = new HashMap<>();
+    public static final Map<Object, ModelHierarchy> MODEL_HIERARCHY_CACHE = new WeakHashMap<>(); // Per model instance, since the parts belong to it
+    public static final Map<ModelPart, float[]> PART_BOUNDS_CACHE = new WeakHashMap<>(); // Parts don't override equals, so this is keyed by identity and dropped with the model
+    public static final Long2ObjectMap<PolygonBuffer> LOD_SILHOUETTES = new Long2ObjectOpenHashMap<>(); // Shadow used for far away entities, keyed by their width and height
 
     public final static int UPDATE_INTERVAL = 20; // In ticks
     public final static int SOURCE_BLOCK_RADIUS = 14; // In blocks, square
+    public final static int SOURCE_REGION_SHIFT = 2; // Entities in the same 4x4x4 block region share their light candidates
 }
@@ -1,104 +1,172 @@
 package fabric.humnyas.undershadowed.core;
 import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
-import static fabric.humnyas.undershadowed.geometry.ShadowGeometry.*;
 import static fabric.humnyas.undershadowed.geometry.ModelDataExtractor.*;
 
 import fabric.humnyas.undershadowed.Undershadowed;
+import fabric.humnyas.undershadowed.core.ShadowEvents.LightRefreshEvent;
 import fabric.humnyas.undershadowed.render.LightSourceHelper;
-import fabric.humnyas.undershadowed.render.ShadowRenderer;
+import fabric.humnyas.undershadowed.render.LightSourceHelper.LightCandidate;
+import fabric.humnyas.undershadowed.render.LightVisibilityCache;
 import fabric.humnyas.undershadowed.render.TransparencyCalculator;
-import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderContext;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.client.MinecraftClient;
-import net.minecraft.client.model.ModelPart;
-import net.minecraft.client.render.entity.EntityRenderDispatcher;
-import net.minecraft.client.util.math.MatrixStack;
+import net.minecraft.client.render.entity.EntityRenderer;
+import net.minecraft.client.render.entity.feature.FeatureRendererContext;
 import net.minecraft.entity.Entity;
-import net.minecraft.util.math.Vec2f;
+import net.minecraft.entity.EntityType;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.World;
-import org.joml.Vector3f;
+import org.jetbrains.annotations.Nullable;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.*;
 
 public class ShadowEngine {
-    public static Map<ModelPart, BoneDataRecord> processEntityData(Entity entity) {
+    // Candidate emitters per region, shared by every entity in it until the tick or the emitter index changes
+    private static final Long2ObjectMap<List<LightCandidate>> REGION_CANDIDATES = new Long2ObjectOpenHashMap<>();
+    private static long candidateTick = Long.MIN_VALUE;
+    private static int candidateVersion;
+
+    @Nullable
+    public static Object getModel(Entity entity) {
         MinecraftClient client = MinecraftClient.getInstance();
-        EntityRenderDispatcher dispatcher = client.getEntityRenderDispatcher();
-        Object renderer = dispatcher.getRenderer(entity);
+        EntityRenderer<? super Entity> renderer = client.getEntityRenderDispatcher().getRenderer(entity);
+
+        // A single map hit per entity, the accessor is only resolved the first time a type is seen
+        EntityType<?> type = entity.getType();
+        ModelAccessor accessor = MODEL_ACCESSOR_CACHE.get(type);
+        if (accessor == null) {
+            accessor = resolveModelAccessor(renderer);
+            MODEL_ACCESSOR_CACHE.put(type, accessor);
+        }
+
+        return accessor.getModel(renderer);
+    }
 
-        String entityClassName = entity.getClass().getSimpleName();
-        if (entityClassName.contains("Client")) {
-            entityClassName = entityClassName.replace("Client", "");
+    // Finds the cheapest way to get the model out of a renderer, or NO_MODEL if there is none
+    private static ModelAccessor resolveModelAccessor(EntityRenderer<?> renderer) {
+        // Every LivingEntityRenderer exposes its model through FeatureRendererContext, no reflection needed
+        if (renderer instanceof FeatureRendererContext<?, ?>) {
+            return r -> r instanceof FeatureRendererContext<?, ?> context ? context.getModel() : null;
         }
 
+        // Modded renderers that don't extend LivingEntityRenderer may still have a public getModel()
         try {
-            Class<?> rendererClass = Class.forName("net.minecraft.client.render.entity." + entityClassName + "Renderer");
-            if (rendererClass.isInstance(renderer)) {
-                Method getModelMethod = rendererClass.getMethod("getModel");
-                Object model = getModelMethod.invoke(renderer);
-                return extractBoneData(model);
-            }
-        } catch (Exception ignored) {}
-
-        return null;
+            Method getModelMethod = renderer.getClass().getMethod("getModel");
+            if (getModelMethod.getReturnType().isPrimitive()) return NO_MODEL;
+
+            MethodHandle handle = MethodHandles.publicLookup()
+                    .unreflect(getModelMethod)
+                    .asType(MethodType.methodType(Object.class, EntityRenderer.class));
+
+            return r -> {
+                try {
+                    return (Object) handle.invokeExact(r);
+                } catch (Throwable ignored) {
+                    return null;
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException ignored) {}
+
+        return NO_MODEL;
     }
 
-    public static void makeShadow(Entity entity, WorldRenderContext context) {
-        MatrixStack matrices = context.matrixStack();
-        Map<ModelPart, BoneDataRecord> boneData = processEntityData(entity);
-        if (boneData == null) return;
-
-        MinecraftClient client = MinecraftClient.getInstance();
-        float tickDelta = client.getTickDelta();
-        World world = client.world;
-        if (world == null) return;
-
-        long lastTick;
-        List<Vec3d> sources = new ArrayList<>();
-
-        // Resets the time for each entity
-        if (LAST_UPDATE_TICK.containsKey(entity)) {
-            lastTick = LAST_UPDATE_TICK.get(entity);
-        } else {
-            lastTick = world.getTime();
-            LAST_UPDATE_TICK.put(entity, lastTick);
+    // Light refresh stage, run once per frame before any shadow is made. The scheduler decides which of the
+    // due entities fit in this frame, candidates are shared by every entity in the same region
+    public static void refreshLightSources(World world, List<Entity> entities, Vec3d cameraPos) {
+        long time = world.getTime();
+        if (time != candidateTick || LightEmitterIndex.getVersion() != candidateVersion) {
+            REGION_CANDIDATES.clear();
+            candidateTick = time;
+            candidateVersion = LightEmitterIndex.getVersion();
         }
 
-        // Gets new light source vectors every UPDATE_INTERVAL ticks
-        if (world.getTime() - lastTick > UPDATE_INTERVAL) {
-            sources = LightSourceHelper.getNearbySourcePositions(entity);
-            SOURCE_POSITIONS.put(entity, sources);
-            LAST_UPDATE_TICK.put(entity, world.getTime());
-        } else if (SOURCE_POSITIONS.containsKey(entity)) {
-            sources = SOURCE_POSITIONS.get(entity);
-        }
+        LightRefreshScheduler.run(world, entities, cameraPos);
+    }
 
-        List<List<Vec2f>> totalVertices = new LinkedList<>();
-        List<List<Vector3f>> vertices = getVertices(boneData, entity);
-        List<Float[]> sourceAngles = LightSourceHelper.getSourceAngles(entity, sources);
+    public static void refreshLightSource(World world, Entity entity, long time) {
+        long regionKey = LightSourceHelper.getRegionKey(entity.getBlockPos());
+        List<LightCandidate> candidates = REGION_CANDIDATES.get(regionKey);
+        if (candidates == null) {
+            candidates = LightSourceHelper.getRegionCandidates(world, regionKey);
+            REGION_CANDIDATES.put(regionKey, candidates);
+        }
 
-        float opacity = TransparencyCalculator.getTransparency(entity);
+        EntityShadowState state = EntityShadowState.get(entity);
+        if (ShadowConfig.asyncLightDiscovery) {
+            LightDiscoveryWorker.submit(world, entity, state, candidates, time); // Records its own event on the worker
+            return;
+        }
 
-        float size = getShadowSize(entity, vertices);
-        float centerBottomOffset = centerBottomOffset(entity, vertices);
+        LightRefreshEvent event = new LightRefreshEvent();
+        event.begin();
+        long raycasts = LightVisibilityCache.getMisses(); // Every miss is followed by a raycast
+
+        // Only the visibility step is done per entity
+        List<Vec3d> sourcePositions = LightSourceHelper.getNearbySourcePositions(entity, candidates);
+        state.sourcePositions = sourcePositions;
+        state.lastUpdateTick = time;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.setEntity(entity);
+            event.emittersScanned = candidates.size();
+            event.raycasts = (int) (LightVisibilityCache.getMisses() - raycasts);
+            event.lightsFound = sourcePositions.size();
+            event.commit();
+        }
+    }
 
-        for (Float[] angles : sourceAngles) {
-            float horizontalAngle = angles[0], verticalAngle = angles[1];
+    // Render thread part of a shadow. Picks the tier, looks up the lights and the opacity and copies the pose into the
+    // job, returns false when the entity doesn't get a shadow this frame
+    public static boolean captureShadow(Entity entity, Vec3d cameraPos, float tickDelta, ShadowJob job) {
+        job.reset();
+
+        EntityShadowState state = EntityShadowState.get(entity);
+        ShadowLod.Tier tier = ShadowLod.getTier(entity, state, cameraPos);
+        if (tier == ShadowLod.Tier.NONE) return false;
+        job.tier = tier;
+
+        // Past the near tier only the strongest light casts a shadow
+        List<Vec3d> sources = state.sourcePositions;
+        if (sources == null) sources = List.of();
+        if (tier != ShadowLod.Tier.NEAR) sources = ShadowLod.getStrongestSource(entity, sources);
+
+        job.ensureAngles(sources.size() + 1);
+        int sourceCount = LightSourceHelper.getSourceAngles(entity, sources, job.angles);
+        if (tier != ShadowLod.Tier.NEAR) sourceCount = Math.min(sourceCount, 1);
+        if (sourceCount == 0) return false;
+        job.sourceCount = sourceCount;
+        ShadowProfiler.count(ShadowProfiler.Counter.LIGHTS, sourceCount);
+
+        job.opacity = TransparencyCalculator.getTransparency(entity);
+        job.originX = MathHelper.lerp(tickDelta, entity.prevX, entity.getX());
+        job.originY = MathHelper.lerp(tickDelta, entity.prevY, entity.getY()) + 0.01; // Offset slightly to prevent z-fighting
+        job.originZ = MathHelper.lerp(tickDelta, entity.prevZ, entity.getZ());
+
+        if (tier == ShadowLod.Tier.FAR) {
+            job.silhouette = ShadowLod.getSilhouette(entity);
+            return true;
+        }
 
-            float morphedSize = morphShadowSize(size, verticalAngle);
+        Object model = getModel(entity);
+        if (model == null) return false;
+        job.model = model;
 
-            List<List<Vec2f>> flattenedVertices = flattenVertices(vertices, horizontalAngle); // Flattens the vertices to the angle
-            List<List<Vec2f>> prunedVertices = pruneVertices(flattenedVertices); // Removes redundant vertices
-            List<List<Vec2f>> rotatedVertices = rotateShadow(prunedVertices, horizontalAngle, centerBottomOffset); // Rotates the shadow to face away from light source
-            List<List<Vec2f>> squishedVertices = squishShadow(rotatedVertices, morphedSize); // flattens / stretches the shadow to appear morphed in the way it should be expected
+        // Measured once per entity, capturePose only fills them in when they are still NaN
+        job.size = state.baseShadowHeight;
+        job.centerBottomOffset = state.baseShadowOffset;
 
+        int maxBones = tier == ShadowLod.Tier.MID ? ShadowConfig.lodMidBoneCount : Integer.MAX_VALUE;
+        ShadowCore.capturePose(getHierarchy(model), estimateBodyYaw(entity, state), maxBones, job);
 
-            totalVertices.addAll(squishedVertices);
-        }
-        // Renders the shadow
-        ShadowRenderer.renderShadow(matrices, entity, tickDelta, totalVertices, opacity);
+        state.baseShadowHeight = job.size;
+        state.baseShadowOffset = job.centerBottomOffset;
+        return true;
     }
 }
-
-
@@ -0,0 +1,117 @@
+package fabric.humnyas.undershadowed.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import net.minecraft.entity.Entity;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.math.BlockPos;
+
+// Java Flight Recorder events, so recordings show the shadow work by frame, entity and texture instead of as anonymous
+// render thread time. They cost next to nothing unless a recording has them enabled
+public class ShadowEvents {
+    @Name("undershadowed.Frame")
+    @Label("Shadow Frame")
+    @Category("Undershadowed")
+    @Description("Every shadow of one frame, from culling to the draw call")
+    @StackTrace(false)
+    public static class FrameEvent extends Event {
+        @Label("Entities")
+        public int entities;
+
+        @Label("Culled")
+        public int culled;
+
+        @Label("Shadows")
+        public int shadows;
+
+        @Label("Triangles")
+        public int triangles;
+
+        @Label("Parallel Geometry")
+        public boolean parallel;
+    }
+
+    @Name("undershadowed.LightRefresh")
+    @Label("Light Refresh")
+    @Category("Undershadowed")
+    @Description("Light source search for one entity. Runs on a light worker when asyncLightDiscovery is on")
+    @StackTrace(false)
+    public static class LightRefreshEvent extends Event {
+        @Label("Entity Type")
+        public String entityType;
+
+        @Label("Entity Id")
+        public int entityId;
+
+        @Label("Block X")
+        public int blockX;
+
+        @Label("Block Y")
+        public int blockY;
+
+        @Label("Block Z")
+        public int blockZ;
+
+        @Label("Chunk X")
+        public int chunkX;
+
+        @Label("Chunk Z")
+        public int chunkZ;
+
+        @Label("Emitters Scanned")
+        public int emittersScanned;
+
+        @Label("Raycasts")
+        public int raycasts;
+
+        @Label("Lights Found")
+        public int lightsFound;
+
+        @Label("Async")
+        public boolean async;
+
+        // Only call on the thread that owns the entity
+        public void setEntity(Entity entity) {
+            BlockPos pos = entity.getBlockPos();
+
+            entityType = Registries.ENTITY_TYPE.getId(entity.getType()).toString();
+            entityId = entity.getId();
+            blockX = pos.getX();
+            blockY = pos.getY();
+            blockZ = pos.getZ();
+            chunkX = pos.getX() >> 4;
+            chunkZ = pos.getZ() >> 4;
+        }
+    }
+
+    @Name("undershadowed.TextureAlpha")
+    @Label("Texture Alpha")
+    @Category("Undershadowed")
+    @Description("Average alpha of one entity texture, read from the disk cache or decoded")
+    @StackTrace(false)
+    public static class TextureAlphaEvent extends Event {
+        @Label("Texture")
+        public String texture;
+
+        @Label("Resource Pack")
+        public String resourcePack;
+
+        @Label("File Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+
+        @Label("From Disk Cache")
+        public boolean cached;
+    }
+}
@@ -0,0 +1,53 @@
+package fabric.humnyas.undershadowed.core;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import fabric.humnyas.undershadowed.math.PolygonBuffer;
+import fabric.humnyas.undershadowed.math.PolygonSink;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+// Everything one entities shadow is built from, captured on the render thread so the geometry can be built on any
+// thread without touching the entity or the world. Jobs are pooled and reused from frame to frame
+public class ShadowJob implements PolygonSink {
+    // Captured by ShadowEngine.captureShadow, or ShadowCore.capturePose for the bones
+    public ShadowLod.Tier tier;
+    public Object model; // Only its identity is used, for the polygon cache key
+    public float[] bones = new float[BONE_STRIDE * 16];
+    public int boneCount;
+    public float[] angles = new float[2 * 4]; // Horizontal and vertical angle pairs, one per light
+    public int sourceCount;
+    public float bodyYaw, size, centerBottomOffset, opacity;
+    public double originX, originY, originZ; // Interpolated position the shadow is drawn at
+    public @Nullable PolygonBuffer silhouette; // Used instead of the bones in the far tier
+
+    // Filled by ShadowCore.buildShadow, x z pairs relative to the origin and three points per triangle
+    public float[] triangles = new float[2 * 64];
+    public int triangleVertexCount;
+
+    public void ensureBones(int count) {
+        if (count * BONE_STRIDE > bones.length) bones = new float[Math.max(count * BONE_STRIDE, bones.length * 2)];
+    }
+
+    public void ensureAngles(int count) {
+        if (count * 2 > angles.length) angles = Arrays.copyOf(angles, Math.max(count * 2, angles.length * 2));
+    }
+
+    @Override
+    public void addTriangleVertex(float x, float z) {
+        if ((triangleVertexCount + 1) * 2 > triangles.length) triangles = Arrays.copyOf(triangles, triangles.length * 2);
+
+        triangles[triangleVertexCount * 2] = x;
+        triangles[triangleVertexCount * 2 + 1] = z;
+        triangleVertexCount++;
+    }
+
+    // Drops the references from the last frame, the arrays are kept
+    public void reset() {
+        model = null;
+        silhouette = null;
+        boneCount = 0;
+        sourceCount = 0;
+        triangleVertexCount = 0;
+    }
+}
@@ -0,0 +1,97 @@
+package fabric.humnyas.undershadowed.core;
+
+import fabric.humnyas.undershadowed.math.PolygonBuffer;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityDimensions;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.List;
+
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+// Picks how much work goes into an entities shadow based on how far it is from the camera
+public class ShadowLod {
+    public enum Tier {
+        NEAR, // Every bone, every light
+        MID, // Only the biggest bones and the strongest light
+        FAR, // An ellipse the size of the entity, ShadowCore turns it away from the strongest light
+        NONE // Too far away to see
+    }
+
+    private static final int SILHOUETTE_SEGMENTS = 12;
+
+    public static Tier getTier(Entity entity, EntityShadowState state, Vec3d cameraPos) {
+        double distance = Math.sqrt(entity.squaredDistanceTo(cameraPos));
+        Tier previous = state.lodTier;
+
+        int
+                tier = 0,
+                hysteresis = previous == null ? 0 : ShadowConfig.lodHysteresis;
+
+        // An entity has to be a bit past a boundary before it changes tier, so it doesn't flicker when standing on it
+        for (int i = 0; i < Tier.NONE.ordinal(); i++) {
+            int threshold = previous != null && previous.ordinal() > i ? getBoundary(i) - hysteresis : getBoundary(i) + hysteresis;
+            if (distance > threshold) tier++;
+        }
+
+        Tier result = Tier.values()[tier];
+        state.lodTier = result;
+        return result;
+    }
+
+    // The distance between tier i and tier i + 1
+    private static int getBoundary(int i) {
+        return switch (i) {
+            case 0 -> ShadowConfig.lodNearDistance;
+            case 1 -> ShadowConfig.lodMidDistance;
+            default -> ShadowConfig.lodCutoffDistance;
+        };
+    }
+
+    // The closest source is the one that casts the darkest shadow, the sun is still used first if it is up
+    public static List<Vec3d> getStrongestSource(Entity entity, List<Vec3d> sources) {
+        if (sources.size() <= 1) return sources;
+
+        Vec3d entityPos = entity.getPos(), closest = null;
+        double closestDistance = Double.MAX_VALUE;
+
+        for (Vec3d source : sources) {
+            double distance = source.squaredDistanceTo(entityPos);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = source;
+            }
+        }
+        return List.of(closest);
+    }
+
+    // Shared by every entity with the same size in its current pose, so babies, slimes and crouching players get their own
+    public static PolygonBuffer getSilhouette(Entity entity) {
+        EntityDimensions dimensions = entity.getDimensions(entity.getPose());
+        long key = (long) Float.floatToIntBits(dimensions.width) << 32 | Float.floatToIntBits(dimensions.height) & 0xFFFFFFFFL;
+
+        PolygonBuffer silhouette = LOD_SILHOUETTES.get(key);
+        if (silhouette == null) {
+            silhouette = createSilhouette(dimensions);
+            LOD_SILHOUETTES.put(key, silhouette);
+        }
+        return silhouette;
+    }
+
+    // An ellipse as wide as the entity and as long as it is tall, laid out like the flattened bones before rotateShadow
+    private static PolygonBuffer createSilhouette(EntityDimensions dimensions) {
+        float
+                radiusX = dimensions.width / 2,
+                radiusY = dimensions.height / 2;
+
+        PolygonBuffer silhouette = new PolygonBuffer(SILHOUETTE_SEGMENTS, 1);
+        silhouette.beginPolygon();
+        for (int i = 0; i < SILHOUETTE_SEGMENTS; i++) {
+            double angle = Math.PI * 2 * i / SILHOUETTE_SEGMENTS;
+            silhouette.addPoint((float) Math.cos(angle) * radiusX, (float) Math.sin(angle) * radiusY - radiusY);
+        }
+        silhouette.endPolygon(3);
+
+        return silhouette;
+    }
+}
@@ -0,0 +1,141 @@
+package fabric.humnyas.undershadowed.core;
+
+import fabric.humnyas.undershadowed.Undershadowed;
+import fabric.humnyas.undershadowed.render.ShadowRenderer;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Vec3d;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+// Makes the shadows of every entity in a frame. In serial mode every shadow is built and queued right away. In
+// parallel mode the jobs are captured on the render thread and built on a fork join pool while the rest of the frame
+// renders, then drawn on the next frame. Two job lists take turns, so the render thread never writes to jobs that are
+// still being built
+public class ShadowPass {
+    private static final int JOBS_PER_TASK = 4; // Below this a task builds its jobs instead of splitting further
+
+    private static List<ShadowJob> building = new ArrayList<>(), ready = new ArrayList<>();
+    private static int buildingCount, readyCount;
+    private static @Nullable ForkJoinTask<?> pending;
+    private static ForkJoinPool pool;
+
+    public static void run(List<Entity> entities, Vec3d cameraPos, float tickDelta) {
+        if (!ShadowConfig.parallelShadowGeometry) {
+            cancelPending();
+
+            readyCount = capture(entities, cameraPos, tickDelta, ready);
+            for (int i = 0; i < readyCount; i++) {
+                ShadowCore.buildShadow(ready.get(i));
+                ShadowRenderer.addShadow(ready.get(i), cameraPos);
+            }
+            return;
+        }
+
+        // The jobs from the last frame had the whole frame to finish, so this rarely has to wait
+        if (pending != null) {
+            pending.join();
+            pending = null;
+
+            List<ShadowJob> built = building;
+            building = ready;
+            ready = built;
+            readyCount = buildingCount;
+        }
+
+        for (int i = 0; i < readyCount; i++) {
+            ShadowRenderer.addShadow(ready.get(i), cameraPos);
+        }
+
+        buildingCount = capture(entities, cameraPos, tickDelta, building);
+        pending = getPool().submit(new BuildTask(building, 0, buildingCount));
+    }
+
+    // How many shadows were queued for drawing in the last run
+    public static int getShadowCount() {
+        return readyCount;
+    }
+
+    // Captures a job for every entity that gets a shadow, reusing the jobs of earlier frames. Returns the job count
+    private static int capture(List<Entity> entities, Vec3d cameraPos, float tickDelta, List<ShadowJob> jobs) {
+        long start = ShadowProfiler.start();
+
+        int count = 0;
+        for (Entity entity : entities) {
+            if (count == jobs.size()) jobs.add(new ShadowJob());
+            if (ShadowEngine.captureShadow(entity, cameraPos, tickDelta, jobs.get(count))) count++;
+        }
+
+        ShadowProfiler.end(ShadowProfiler.Stage.CAPTURE, start);
+        ShadowProfiler.count(ShadowProfiler.Counter.ENTITIES, count);
+        return count;
+    }
+
+    // Drops every job, built or not, when the world changes or the client disconnects. Otherwise the first frame in the
+    // new world would draw the shadows built in the old one
+    public static void reset() {
+        cancelPending();
+
+        building.clear();
+        ready.clear();
+        readyCount = 0;
+    }
+
+    // Switching back to serial mode drops whatever was still being built
+    private static void cancelPending() {
+        if (pending == null) return;
+
+        pending.join();
+        pending = null;
+        buildingCount = 0;
+    }
+
+    private static ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Math.max(1, ShadowConfig.geometryWorkerThreads), forkJoinPool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("Undershadowed Geometry Worker #" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+        return pool;
+    }
+
+    // Splits the job range in halves until the pieces are small enough to build directly
+    private static class BuildTask extends RecursiveAction {
+        private final List<ShadowJob> jobs;
+        private final int from, to;
+
+        private BuildTask(List<ShadowJob> jobs, int from, int to) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > JOBS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BuildTask(jobs, from, middle), new BuildTask(jobs, middle, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                ShadowJob job = jobs.get(i);
+                try {
+                    ShadowCore.buildShadow(job);
+                } catch (RuntimeException e) {
+                    // One broken model shouldn't take the other shadows down with it
+                    job.triangleVertexCount = 0;
+                    Undershadowed.LOGGER.warn("Failed to build the shadow for {}", job.model, e);
+                }
+            }
+        }
+    }
+}
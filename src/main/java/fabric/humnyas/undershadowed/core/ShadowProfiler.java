@@ -0,0 +1,177 @@
+package fabric.humnyas.undershadowed.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Timers and counters for the hot paths, shown by ShadowDebugOverlay and /undershadowed profiler. Everything is lock
+// free, since the geometry and light workers record too. When disabled start() returns 0 and nothing else is touched
+public class ShadowProfiler {
+    public enum Stage {
+        FRAME("Frame"),
+        CULL("Cull"),
+        LIGHT_REFRESH("Light refresh"),
+        RAYCAST("Raycast"),
+        CAPTURE("Capture"),
+        MODEL("Model extract"),
+        BUILD("Build"),
+        HULL("Hull"),
+        UNION("Union"),
+        TRIANGULATE("Triangulate"),
+        DRAW("Draw");
+
+        public final String label;
+        public final Histogram histogram = new Histogram();
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    public enum Counter {
+        FRAMES, ENTITIES, LIGHTS, POLYGONS, TRIANGLES, CACHE_HITS, CACHE_MISSES;
+
+        private final LongAdder value = new LongAdder();
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    private static volatile boolean enabled;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        if (enabled && !ShadowProfiler.enabled) reset();
+        ShadowProfiler.enabled = enabled;
+    }
+
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // Does nothing for timers started while the profiler was off
+    public static void end(Stage stage, long start) {
+        if (start != 0) stage.histogram.record(System.nanoTime() - start);
+    }
+
+    public static void count(Counter counter, long amount) {
+        if (enabled) counter.value.add(amount);
+    }
+
+    public static void reset() {
+        for (Stage stage : Stage.values()) stage.histogram.reset();
+        for (Counter counter : Counter.values()) counter.value.reset();
+    }
+
+    // One line per stage that recorded anything, then the counters averaged per frame
+    public static List<String> getReport() {
+        List<String> lines = new ArrayList<>();
+
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = stage.histogram;
+            if (histogram.getCount() == 0) continue;
+
+            lines.add(String.format(Locale.ROOT, "%s: avg %s p50 %s p99 %s max %s (%d)",
+                    stage.label,
+                    formatNanos(histogram.getMean()),
+                    formatNanos(histogram.getPercentile(0.5)),
+                    formatNanos(histogram.getPercentile(0.99)),
+                    formatNanos(histogram.getMax()),
+                    histogram.getCount()));
+        }
+
+        long frames = Math.max(1, Counter.FRAMES.get()), entities = Counter.ENTITIES.get();
+        long hits = Counter.CACHE_HITS.get(), lookups = hits + Counter.CACHE_MISSES.get();
+        lines.add(String.format(Locale.ROOT, "Entities %.1f/frame, lights %.2f/entity",
+                (double) entities / frames, entities == 0 ? 0 : (double) Counter.LIGHTS.get() / entities));
+        lines.add(String.format(Locale.ROOT, "Polygons %.1f/frame, triangles %.1f/frame, cache hits %.1f%%",
+                (double) Counter.POLYGONS.get() / frames, (double) Counter.TRIANGLES.get() / frames, lookups == 0 ? 0 : 100.0 * hits / lookups));
+        return lines;
+    }
+
+    private static String formatNanos(double nanos) {
+        if (nanos >= 1_000_000) return String.format(Locale.ROOT, "%.2fms", nanos / 1_000_000);
+        return String.format(Locale.ROOT, "%.1fus", nanos / 1_000);
+    }
+
+    // Log-linear histogram of nanosecond durations, 8 buckets per power of two so percentiles are within 12.5%
+    public static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder(), total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+
+            buckets.incrementAndGet(getBucket(nanos));
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) total.sum() / count;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        // The upper bound of the bucket the percentile falls in
+        public long getPercentile(double percentile) {
+            long[] counts = new long[buckets.length()];
+            long recorded = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                recorded += counts[i];
+            }
+            if (recorded == 0) return 0;
+
+            long target = Math.max(1, (long) Math.ceil(percentile * recorded)), seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) return Math.min(getBucketUpperBound(i), getMax());
+            }
+            return getMax();
+        }
+
+        public void reset() {
+            for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+            count.reset();
+            total.reset();
+            max.set(0);
+        }
+
+        // Values below SUB_BUCKETS get a bucket each, above that the top bits after the leading one pick the bucket
+        private static int getBucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long getBucketUpperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+
+            int
+                    exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1,
+                    subBucket = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+}
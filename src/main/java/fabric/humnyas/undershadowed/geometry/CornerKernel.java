@@ -0,0 +1,17 @@
+package fabric.humnyas.undershadowed.geometry;
+
+// The per-corner loops of the shadow geometry, run over structure of arrays buffers for all bones at once. See
+// ShadowGeometry.setVectorKernel for how the implementation is picked
+public interface CornerKernel {
+    int FRAME_STRIDE = 12; // Per bone: center x y z, then the x, y and z box axes (already scaled to half the size)
+
+    // Writes the 8 corners of every bone to cornerX, cornerY and cornerZ at bone * 8, in the corner order of
+    // ShadowGeometry.getVertices
+    void transformCorners(float[] frames, int boneCount, float[] cornerX, float[] cornerY, float[] cornerZ);
+
+    // Projects count corners onto the plane facing a light, out = x * cos - z * sin, nudged away from 0
+    void projectCorners(float[] cornerX, float[] cornerZ, int count, float cos, float sin, float[] out);
+
+    // Moves count packed points down by offsetY and rotates them, nudging both coordinates away from 0
+    void rotatePoints(float[] coords, int count, float cos, float sin, float offsetY);
+}
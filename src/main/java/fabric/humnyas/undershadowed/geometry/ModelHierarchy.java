@@ -0,0 +1,155 @@
+package fabric.humnyas.undershadowed.geometry;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import fabric.humnyas.undershadowed.mixin.ModelPartAccessor;
+import net.minecraft.client.model.ModelPart;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// The ModelPart tree of one model, flattened once so every part comes after its parent. Posing the model is then a
+// single pass over the arrays, without recursion or looking up children by name
+public class ModelHierarchy implements PoseSource {
+    public final ModelPart[] parts;
+    public final int[] parents; // Index of the parent part, -1 for the roots
+    public final float[][] bounds; // Box around the parts own cuboids, see ModelDataExtractor.getPartBounds, null when it has none
+    public final int boneCount; // Parts with cuboids, the most bones one pose can produce
+
+    private ModelHierarchy(List<ModelPart> parts, List<Integer> parents) {
+        int size = parts.size(), boneCount = 0;
+
+        this.parts = parts.toArray(new ModelPart[0]);
+        this.parents = new int[size];
+        this.bounds = new float[size][];
+        for (int i = 0; i < size; i++) {
+            this.parents[i] = parents.get(i);
+            if (!getCuboids(this.parts[i]).isEmpty()) {
+                this.bounds[i] = ModelDataExtractor.getPartBounds(this.parts[i]);
+                boneCount++;
+            }
+        }
+        this.boneCount = boneCount;
+    }
+
+    public int size() {
+        return parts.length;
+    }
+
+    // Poses every part and packs the visible parts with cuboids into arena.bones, returns the bone count
+    @Override
+    public int writeBones(ShadowArena arena) {
+        int nodeCount = size();
+
+        arena.ensureNodes(nodeCount);
+        arena.ensureBones(boneCount);
+        Matrix4f[] transforms = arena.nodeTransforms;
+        boolean[] visible = arena.nodeVisible;
+
+        // Parents always come first, so their transform is done by the time a child reads it
+        int count = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            ModelPart part = parts[i];
+            int parent = parents[i];
+
+            visible[i] = part.visible && (parent < 0 || visible[parent]); // An invisible part hides its children too
+            if (!visible[i]) continue;
+
+            Matrix4f transform = parent < 0 ? transforms[i].identity() : transforms[i].set(transforms[parent]);
+            applyPartTransform(part, transform);
+
+            if (bounds[i] == null || part.hidden) continue; // Hidden only skips the parts own cuboids
+
+            writeBone(transform, bounds[i], arena, count * BONE_STRIDE);
+            count++;
+        }
+
+        arena.boneCount = count;
+        return count;
+    }
+
+    // Walks the tree below every ModelPart field of the model. Fields that point inside another fields tree (like a
+    // head field next to a root field) are only added once, at their place in the tree
+    public static ModelHierarchy compile(Object model, Field[] fields) {
+        List<ModelPart> fieldParts = new ArrayList<>();
+        for (Field field : fields) {
+            try {
+                if (field.get(model) instanceof ModelPart part && !fieldParts.contains(part)) fieldParts.add(part);
+            } catch (IllegalAccessException ignored) {}
+        }
+
+        Set<ModelPart> descendants = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ModelPart part : fieldParts) {
+            for (ModelPart child : getChildren(part)) addDescendants(child, descendants);
+        }
+
+        List<ModelPart> parts = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        Set<ModelPart> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ModelPart part : fieldParts) {
+            if (!descendants.contains(part)) addPart(part, -1, parts, parents, visited);
+        }
+
+        return new ModelHierarchy(parts, parents);
+    }
+
+    private static void addDescendants(ModelPart part, Set<ModelPart> descendants) {
+        if (!descendants.add(part)) return;
+        for (ModelPart child : getChildren(part)) addDescendants(child, descendants);
+    }
+
+    private static void addPart(ModelPart part, int parent, List<ModelPart> parts, List<Integer> parents, Set<ModelPart> visited) {
+        if (!visited.add(part)) return; // The same part reachable twice still only casts one shadow
+
+        int index = parts.size();
+        parts.add(part);
+        parents.add(parent);
+        for (ModelPart child : getChildren(part)) addPart(child, index, parts, parents, visited);
+    }
+
+    private static Iterable<ModelPart> getChildren(ModelPart part) {
+        return ((ModelPartAccessor) (Object) part).undershadowed$getChildren().values();
+    }
+
+    private static List<ModelPart.Cuboid> getCuboids(ModelPart part) {
+        return ((ModelPartAccessor) (Object) part).undershadowed$getCuboids();
+    }
+
+    // Same steps as ModelPart.rotate: move to the pivot, rotate, then scale
+    private static void applyPartTransform(ModelPart part, Matrix4f transform) {
+        transform.translate(part.pivotX / 16f, part.pivotY / 16f, part.pivotZ / 16f);
+        if (part.pitch != 0 || part.yaw != 0 || part.roll != 0) transform.rotateZYX(part.roll, part.yaw, part.pitch);
+        if (part.xScale != 1 || part.yScale != 1 || part.zScale != 1) transform.scale(part.xScale, part.yScale, part.zScale);
+    }
+
+    // Writes the box of a posed part to arena.bones at the given offset
+    private static void writeBone(Matrix4f transform, float[] bounds, ShadowArena arena, int offset) {
+        float[] bones = arena.bones;
+        Vector3f vector = arena.vertex;
+        final float minSize = 0.01f / 16f;
+
+        transform.transformPosition(
+                (bounds[0] + bounds[3]) / 32f,
+                (bounds[1] + bounds[4]) / 32f,
+                (bounds[2] + bounds[5]) / 32f,
+                vector);
+        bones[offset + BONE_POS_X] = vector.x;
+        bones[offset + BONE_POS_Y] = vector.y;
+        bones[offset + BONE_POS_Z] = vector.z;
+
+        transform.getNormalizedRotation(arena.boneRotation).getEulerAnglesZYX(vector);
+        bones[offset + BONE_PITCH] = vector.x;
+        bones[offset + BONE_YAW] = vector.y;
+        bones[offset + BONE_ROLL] = vector.z;
+
+        transform.getScale(vector); // Includes the scale of every parent
+        bones[offset + BONE_SIZE_X] = Math.max((bounds[3] - bounds[0]) / 16f * vector.x, minSize);
+        bones[offset + BONE_SIZE_Y] = Math.max((bounds[4] - bounds[1]) / 16f * vector.y, minSize);
+        bones[offset + BONE_SIZE_Z] = Math.max((bounds[5] - bounds[2]) / 16f * vector.z, minSize);
+    }
+}
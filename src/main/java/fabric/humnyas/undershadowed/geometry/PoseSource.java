@@ -0,0 +1,7 @@
+package fabric.humnyas.undershadowed.geometry;
+
+// Anything that can be posed into packed bones, a Minecraft model (see ModelHierarchy) or a synthetic one
+public interface PoseSource {
+    // Writes the posed bones to arena.bones in the BONE_STRIDE layout and returns the bone count
+    int writeBones(ShadowArena arena);
+}
@@ -0,0 +1,60 @@
+package fabric.humnyas.undershadowed.geometry;
+
+// The plain Java kernel, used whenever the Vector API isn't available. Its static loops also finish the tails that
+// don't fill a whole vector in VectorCornerKernel
+public class ScalarCornerKernel implements CornerKernel {
+    private static final float EPSILON = 1e-2f;
+
+    @Override
+    public void transformCorners(float[] frames, int boneCount, float[] cornerX, float[] cornerY, float[] cornerZ) {
+        for (int i = 0; i < boneCount; i++) {
+            int frame = i * FRAME_STRIDE;
+
+            for (int j = 0; j < 8; j++) {
+                float
+                        signX = (j & 1) == 0 ? 1 : -1,
+                        signY = (j & 2) == 0 ? -1 : 1,
+                        signZ = (j & 4) == 0 ? 1 : -1;
+
+                int corner = i * 8 + j;
+                cornerX[corner] = signX * frames[frame + 3] + signY * frames[frame + 6] + (signZ * frames[frame + 9] + frames[frame]);
+                cornerY[corner] = signX * frames[frame + 4] + signY * frames[frame + 7] + (signZ * frames[frame + 10] + frames[frame + 1]);
+                cornerZ[corner] = signX * frames[frame + 5] + signY * frames[frame + 8] + (signZ * frames[frame + 11] + frames[frame + 2]);
+            }
+        }
+    }
+
+    @Override
+    public void projectCorners(float[] cornerX, float[] cornerZ, int count, float cos, float sin, float[] out) {
+        projectCorners(cornerX, cornerZ, 0, count, cos, sin, out);
+    }
+
+    @Override
+    public void rotatePoints(float[] coords, int count, float cos, float sin, float offsetY) {
+        rotatePoints(coords, 0, count * 2, cos, sin, offsetY);
+    }
+
+    static void projectCorners(float[] cornerX, float[] cornerZ, int from, int to, float cos, float sin, float[] out) {
+        for (int i = from; i < to; i++) {
+            out[i] = nudge(cornerX[i] * cos - cornerZ[i] * sin);
+        }
+    }
+
+    // Where from and to are indices into coords, not point indices
+    static void rotatePoints(float[] coords, int from, int to, float cos, float sin, float offsetY) {
+        for (int i = from; i < to; i += 2) {
+            float
+                    translatedX = coords[i],
+                    translatedY = coords[i + 1] - offsetY;
+
+            coords[i] = nudge(translatedX * cos + translatedY * -sin);
+            coords[i + 1] = nudge(translatedY * cos + translatedX * sin);
+        }
+    }
+
+    // Keeps values off 0, so flattened points never end up exactly on an axis
+    private static float nudge(float value) {
+        if (Math.abs(value) < EPSILON) return EPSILON * Math.signum(value + EPSILON / 10);
+        return value;
+    }
+}
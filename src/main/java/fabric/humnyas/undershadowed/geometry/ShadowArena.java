@@ -0,0 +1,92 @@
+package fabric.humnyas.undershadowed.geometry;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import fabric.humnyas.undershadowed.math.PolygonBuffer;
+import fabric.humnyas.undershadowed.math.PolygonMath;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+// Per-thread scratch memory for the shadow pipeline. Everything is reused from entity to entity, so once the
+// arrays have grown to fit the biggest model nothing is allocated anymore
+public class ShadowArena {
+    private static final ThreadLocal<ShadowArena> ARENAS = ThreadLocal.withInitial(ShadowArena::new);
+
+    public float[] bones = new float[BONE_STRIDE * 16]; // Packed bone data, see BONE_STRIDE
+    public int boneCount;
+    public final float[] boneSwap = new float[BONE_STRIDE];
+
+    public float[] boneFrames = new float[CornerKernel.FRAME_STRIDE * 16]; // Center and box axes per bone, see CornerKernel
+    public float[]
+            cornerX = new float[16 * 8], // 8 corners per bone, one array per axis
+            cornerY = new float[16 * 8],
+            cornerZ = new float[16 * 8],
+            projected = new float[16 * 8]; // The corners flattened towards one light
+    public float[] angles = new float[2 * 4]; // Horizontal and vertical angle pairs, one per light
+    public final IntArrayList emitters = new IntArrayList(); // x y z luminance per emitter, see LightSearch.findLights
+    public final IntArrayList lights = new IntArrayList(); // x y z per light that was found, see LightSearch.findLights
+
+    public final PolygonBuffer
+            flattened = new PolygonBuffer(128, 16),
+            pruned = new PolygonBuffer(128, 16),
+            merged = new PolygonBuffer(128, 16), // One lights bone hulls, merged into their outline
+            shadow = new PolygonBuffer(512, 64); // Every polygon of the entities shadow, for all lights
+
+    public float[] hullInput = new float[16], hullOutput = new float[18];
+    public int[] triangles = new int[64], triangleScratch = new int[96];
+    public final PolygonMath.UnionScratch unionScratch = new PolygonMath.UnionScratch();
+
+    public Matrix4f[] nodeTransforms = new Matrix4f[0]; // Posed transform of every part in the model hierarchy
+    public boolean[] nodeVisible = new boolean[0];
+    public final Quaternionf boneRotation = new Quaternionf();
+    public final Vector3f vertex = new Vector3f();
+
+    public static ShadowArena get() {
+        return ARENAS.get();
+    }
+
+    public void ensureBones(int count) {
+        if (count * BONE_STRIDE > bones.length) {
+            float[] grown = new float[Math.max(count * BONE_STRIDE, bones.length * 2)];
+            System.arraycopy(bones, 0, grown, 0, boneCount * BONE_STRIDE);
+            bones = grown;
+        }
+        if (count * 8 > cornerX.length) {
+            int size = Math.max(count * 8, cornerX.length * 2);
+            cornerX = new float[size];
+            cornerY = new float[size];
+            cornerZ = new float[size];
+            projected = new float[size];
+            boneFrames = new float[size / 8 * CornerKernel.FRAME_STRIDE];
+        }
+    }
+
+    public void ensureNodes(int count) {
+        if (count <= nodeTransforms.length) return;
+
+        int size = Math.max(count, nodeTransforms.length * 2);
+        Matrix4f[] grown = Arrays.copyOf(nodeTransforms, size);
+        for (int i = nodeTransforms.length; i < size; i++) grown[i] = new Matrix4f();
+        nodeTransforms = grown;
+        nodeVisible = new boolean[size];
+    }
+
+    public void ensureAngles(int count) {
+        if (count * 2 > angles.length) angles = new float[Math.max(count * 2, angles.length * 2)];
+    }
+
+    public void ensureHull(int points) {
+        if (points * 2 > hullInput.length) {
+            hullInput = new float[points * 2];
+            hullOutput = new float[(points + 1) * 2];
+        }
+    }
+
+    public void ensureTriangles(int points) {
+        if ((points - 2) * 3 > triangles.length) triangles = new int[Math.max((points - 2) * 3, triangles.length * 2)];
+        if (points * 3 > triangleScratch.length) triangleScratch = new int[Math.max(points * 3, triangleScratch.length * 2)];
+    }
+}
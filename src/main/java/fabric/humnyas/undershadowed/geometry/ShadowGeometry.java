@@ -1,164 +1,178 @@
 package fabric.humnyas.undershadowed.geometry;
 import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
 
+import fabric.humnyas.undershadowed.math.PolygonBuffer;
 import fabric.humnyas.undershadowed.math.PolygonMath;
-import net.minecraft.client.model.ModelPart;
-import net.minecraft.entity.Entity;
-import net.minecraft.util.math.Vec2f;
-import org.joml.Quaternionf;
-import org.joml.Vector3f;
-
-import java.util.*;
 
 public class ShadowGeometry {
-    // Turns the boneData into a list of vertices
-    public static List<List<Vector3f>> getVertices(Map<ModelPart, BoneDataRecord> boneData, Entity entity) {
-        List<List<Vector3f>> vertices = new LinkedList<>();
-
-        float bodyYaw = ModelDataExtractor.estimateBodyYaw(entity);
+    private static final CornerKernel SCALAR_KERNEL = new ScalarCornerKernel();
+    private static CornerKernel kernel = SCALAR_KERNEL;
+
+    // Switches to VectorCornerKernel when enabled, the JVM was started with --add-modules jdk.incubator.vector and the
+    // CPU has 256 bit vectors. Otherwise the scalar kernel is used. Returns whether the vector kernel is in use
+    public static boolean setVectorKernel(boolean enabled) {
+        kernel = SCALAR_KERNEL;
+        if (!enabled || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return false;
+
+        // Loaded by name, it's compiled apart from the rest of the mod so only it needs the module (see build.gradle)
+        try {
+            Class<?> vectorKernel = Class.forName("fabric.humnyas.undershadowed.geometry.VectorCornerKernel");
+            if ((boolean) vectorKernel.getMethod("isSupported").invoke(null)) kernel = (CornerKernel) vectorKernel.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ignored) {} // The module is there but unusable, stay on the scalar kernel
+        return kernel != SCALAR_KERNEL;
+    }
 
-        Quaternionf entityRotation = new Quaternionf().rotateY((float) Math.toRadians(-bodyYaw));
+    // Turns the packed bone data into 8 corners per bone, written to arena.cornerX, cornerY and cornerZ at bone * 8
+    public static void getVertices(float[] bones, int boneCount, float bodyYaw, ShadowArena arena) {
+        arena.ensureBones(boneCount);
+        float[] frames = arena.boneFrames;
 
-        for (BoneDataRecord data : boneData.values()) {
+        float
+                entityRad = (float) Math.toRadians(-bodyYaw),
+                entityCos = (float) Math.cos(entityRad),
+                entitySin = (float) Math.sin(entityRad);
+
+        // Folds the bone rotation, its position and the body yaw into one frame per bone, so the kernel only has to
+        // add up the signed box axes for every corner
+        for (int i = 0; i < boneCount; i++) {
+            int bone = i * BONE_STRIDE, frame = i * CornerKernel.FRAME_STRIDE;
             float
-                    x = data.posX(),
-                    y = data.posY(),
-                    z = data.posZ(),
-                    pitch = data.pitch(),
-                    yaw = data.yaw(),
-                    roll = data.roll(),
-                    w = data.sizeX() / 2,
-                    h = data.sizeY() / 2,
-                    d = data.sizeZ() / 2;
-
-            Quaternionf boneRotation = new Quaternionf()
-                    .rotateZ(roll)
-                    .rotateY(yaw)
-                    .rotateX(pitch);
-
-            // Cube vertices
-            Vector3f[] localVertices = {
-                    new Vector3f(+w, -h, +d),
-                    new Vector3f(-w, -h, +d),
-                    new Vector3f(+w, +h, +d),
-                    new Vector3f(-w, +h, +d),
-                    new Vector3f(+w, -h, -d),
-                    new Vector3f(-w, -h, -d),
-                    new Vector3f(+w, +h, -d),
-                    new Vector3f(-w, +h, -d)
-            };
-
-            // Rotates the vertices, and moves them to the position
-            List<Vector3f> boneVertices = new ArrayList<>();
-            for (int j = 0; j < 8; j++) {
-                Vector3f vertex = new Vector3f(localVertices[j]);
-                Vector3f pivot = new Vector3f(x, y - (h / 2), z);
-
-                vertex.add(x, y, z)
-                        .sub(pivot)
-                        .rotate(boneRotation)
-                        .add(pivot)
-                        .rotate(entityRotation);
-                boneVertices.add(vertex);
-            }
-            vertices.add(boneVertices);
+                    pitch = bones[bone + BONE_PITCH],
+                    yaw = bones[bone + BONE_YAW],
+                    roll = bones[bone + BONE_ROLL],
+                    cosPitch = (float) Math.cos(pitch), sinPitch = (float) Math.sin(pitch),
+                    cosYaw = (float) Math.cos(yaw), sinYaw = (float) Math.sin(yaw),
+                    cosRoll = (float) Math.cos(roll), sinRoll = (float) Math.sin(roll);
+
+            // Columns of the roll * yaw * pitch rotation, each scaled to half the box size
+            writeAxis(frames, frame, bones[bone + BONE_POS_X], bones[bone + BONE_POS_Y], bones[bone + BONE_POS_Z], 1, entityCos, entitySin);
+            writeAxis(frames, frame + 3,
+                    cosRoll * cosYaw,
+                    sinRoll * cosYaw,
+                    -sinYaw,
+                    bones[bone + BONE_SIZE_X] / 2, entityCos, entitySin);
+            writeAxis(frames, frame + 6,
+                    cosRoll * sinYaw * sinPitch - sinRoll * cosPitch,
+                    sinRoll * sinYaw * sinPitch + cosRoll * cosPitch,
+                    cosYaw * sinPitch,
+                    bones[bone + BONE_SIZE_Y] / 2, entityCos, entitySin);
+            writeAxis(frames, frame + 9,
+                    cosRoll * sinYaw * cosPitch + sinRoll * sinPitch,
+                    sinRoll * sinYaw * cosPitch - cosRoll * sinPitch,
+                    cosYaw * cosPitch,
+                    bones[bone + BONE_SIZE_Z] / 2, entityCos, entitySin);
         }
 
-        return vertices;
+        kernel.transformCorners(frames, boneCount, arena.cornerX, arena.cornerY, arena.cornerZ);
+    }
+
+    // Writes the vector times scale to frames, turned by the body yaw
+    private static void writeAxis(float[] frames, int offset, float x, float y, float z, float scale, float entityCos, float entitySin) {
+        frames[offset] = (entityCos * x + entitySin * z) * scale;
+        frames[offset + 1] = y * scale;
+        frames[offset + 2] = (entityCos * z - entitySin * x) * scale;
     }
 
     // Removes redundant vertices for better / more optimal rendering
-    public static List<List<Vec2f>> pruneVertices(List<List<Vec2f>> vertices) {
-        List<List<Vec2f>> pruned = new LinkedList<>();
+    public static void pruneVertices(PolygonBuffer vertices, PolygonBuffer pruned, ShadowArena arena) {
+        pruned.clear();
         float epsilon = 1e-2f;
 
-        for (List<Vec2f> entry : vertices) {
-            if (entry.size() < 3) continue;
+        for (int i = 0; i < vertices.getPolygonCount(); i++) {
+            int length = vertices.getLength(i);
+            if (length < 3) continue;
 
-            List<Vec2f> uniqueVertices = PolygonMath.removeNearDuplicates(entry, epsilon);
-            List<Vec2f> hull = PolygonMath.convexHull(uniqueVertices);
-            //List<Vec2f> cleanedHull = PolygonMath.removeColinearPoints(hull, epsilon);
+            arena.ensureHull(length);
+            System.arraycopy(vertices.getCoords(), vertices.getOffset(i) * 2, arena.hullInput, 0, length * 2);
 
-            if (hull.size() >= 3) {
-                pruned.add(hull);
+            int unique = PolygonMath.removeNearDuplicates(arena.hullInput, length, epsilon);
+            int hull = PolygonMath.convexHull(arena.hullInput, unique, arena.hullOutput);
+
+            if (hull >= 3) {
+                pruned.addPolygon(arena.hullOutput, 0, hull);
             }
         }
+    }
+
+    // Flattens the corners in the arena to face towards the source angle, one polygon per bone
+    public static void flattenVertices(ShadowArena arena, int boneCount, float sourceAngle, PolygonBuffer flattened) {
+        flattened.clear();
+        float[] flattenedX = arena.cornerX;
+
+        if (sourceAngle != 0) {
+            float angleRad = (float) Math.toRadians(sourceAngle);
+            kernel.projectCorners(arena.cornerX, arena.cornerZ, boneCount * 8, (float) Math.cos(angleRad), (float) Math.sin(angleRad), arena.projected);
+            flattenedX = arena.projected;
+        }
+
+        for (int i = 0; i < boneCount; i++) {
+            flattened.addPolygon(flattenedX, arena.cornerY, i * 8, 8);
+        }
+    }
 
-        return pruned;
+    // Rotates every polygon in place
+    public static void rotateShadow(PolygonBuffer bones, float sourceDegrees, float size) {
+        float angleRad = (float) Math.toRadians(sourceDegrees + 180); // Make it face away from the source
+        kernel.rotatePoints(bones.getCoords(), bones.getPointCount(), (float) Math.cos(angleRad), (float) Math.sin(angleRad), size);
     }
 
-    // Flattens all the vertices in the inputted list to face towards the source angle
-    public static List<List<Vec2f>> flattenVertices(List<List<Vector3f>> vertices, float sourceAngle) {
-        List<List<Vec2f>> flattenedVertices = new LinkedList<>();
+    public static void squishShadow(PolygonBuffer vertices, float sizeMultiplier) { // Make the shadow sizeMultiplier times bigger/smaller
+        // Remove errors temporarily
+    }
 
-        float
-                angleRad = (float) Math.toRadians(sourceAngle),
-                cos = (float) Math.cos(angleRad),
-                sin = (float) Math.sin(angleRad);
-
-        for (List<Vector3f> bone : vertices) {
-            List<Vec2f> flattenedBone = new ArrayList<>();
-
-            for (Vector3f vertex : bone) {
-                float
-                        x = vertex.x,
-                        z = vertex.z,
-                        flattenedX = x;
-
-                if (sourceAngle != 0) {
-                    flattenedX = x * cos - z * sin;
-
-                    float epsilon = 1e-2f;
-                    if (Math.abs(flattenedX) < epsilon) {
-                        flattenedX = epsilon * Math.signum(flattenedX + epsilon/10);
-                    }
-                }
-
-                Vec2f flattenedVertex = new Vec2f(flattenedX, vertex.y);
-                flattenedBone.add(flattenedVertex);
-            }
+    // Returns a multiplier for the height of the shadow
+    public static float morphShadowSize(float baseSize, float verticalAngle) { // Where verticalAngle is the angle of the source above/below the entity
+        return baseSize; // Remove errors temporarily
+    }
+
+    // Where cornerY holds the y of vertexCount corners, see getVertices
+    public static float getShadowHeight(float[] cornerY, int vertexCount) {
+        float maxY = 0, minY = 0;
 
-            flattenedVertices.add(flattenedBone);
+        for (int i = 0; i < vertexCount; i++) {
+            float y = cornerY[i];
+            if (y > maxY) maxY = y;
+            else if (y < minY) minY = y;
         }
 
-        return flattenedVertices;
+        return maxY - minY;
     }
 
-    public static List<List<Vec2f>> rotateShadow(List<List<Vec2f>> bones, float sourceDegrees, float size) {
-        List<List<Vec2f>> rotatedBones = new LinkedList<>();
+    public static float getCenterBottomOffset(float[] cornerY, int vertexCount) {
+        float maxY = 0;
 
-        float
-                angleRad = (float) Math.toRadians(sourceDegrees + 180), // Make it face away from the source
-                cos = (float) Math.cos(angleRad),
-                sin = (float) Math.sin(angleRad);
-
-        for (List<Vec2f> bone : bones) {
-            List<Vec2f> rotatedBone = new ArrayList<>();
-
-            for (Vec2f vertex : bone) {
-                float
-                        translatedX = vertex.x,
-                        translatedY = vertex.y - size,
-                        rotatedX = translatedX * cos - translatedY * sin,
-                        rotatedY = translatedX * sin + translatedY * cos;
-
-                float epsilon = 1e-2f;
-                if (Math.abs(rotatedX) < epsilon) {
-                    rotatedX = epsilon * Math.signum(rotatedX + epsilon/10);
-                } if (Math.abs(rotatedY) < epsilon) {
-                    rotatedY = epsilon * Math.signum(rotatedY + epsilon/10);
-                }
-
-                rotatedBone.add(new Vec2f(rotatedX, rotatedY));
+        // Find max y because the shadow is upside-down
+        for (int i = 0; i < vertexCount; i++) {
+            float y = cornerY[i];
+            if (y > maxY) maxY = y;
+        }
+
+        return maxY;
+    }
+
+    // Moves the keep biggest bones (by volume) to the front of arena.bones and returns the new bone count
+    public static int keepLargestBones(ShadowArena arena, int boneCount, int keep) {
+        if (boneCount <= keep) return boneCount;
+
+        float[] bones = arena.bones, swap = arena.boneSwap;
+        for (int i = 0; i < keep; i++) {
+            int largest = i;
+            for (int j = i + 1; j < boneCount; j++) {
+                if (getBoneVolume(bones, j) > getBoneVolume(bones, largest)) largest = j;
             }
+            if (largest == i) continue;
 
-            rotatedBones.add(rotatedBone);
+            System.arraycopy(bones, i * BONE_STRIDE, swap, 0, BONE_STRIDE);
+            System.arraycopy(bones, largest * BONE_STRIDE, bones, i * BONE_STRIDE, BONE_STRIDE);
+            System.arraycopy(swap, 0, bones, largest * BONE_STRIDE, BONE_STRIDE);
         }
 
-        return rotatedBones;
+        arena.boneCount = keep;
+        return keep;
     }
 
-    public static List<List<Vec2f>> squishShadow(List<List<Vec2f>> vertices, float sizeMultiplier) { // Make the shadow sizeMultiplier times bigger/smaller
-        return vertices; // Remove errors temporarily
+    private static float getBoneVolume(float[] bones, int bone) {
+        int offset = bone * BONE_STRIDE;
+        return bones[offset + BONE_SIZE_X] * bones[offset + BONE_SIZE_Y] * bones[offset + BONE_SIZE_Z];
     }
 }
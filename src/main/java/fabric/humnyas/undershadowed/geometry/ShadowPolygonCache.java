@@ -0,0 +1,128 @@
+package fabric.humnyas.undershadowed.geometry;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import fabric.humnyas.undershadowed.math.PolygonBuffer;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+
+import java.lang.ref.WeakReference;
+
+// Finished shadow polygons for one light, so idle entities under static lights don't rebuild them every frame.
+// Shared by the geometry workers, so everything touching the map is synchronized
+public class ShadowPolygonCache {
+    private static final int MAX_ENTRIES = 4096;
+    private static final float
+            PIXEL = 1 / 16f, // Bone positions and sizes snap to the models pixel grid
+            ROTATION_STEP = (float) Math.toRadians(2), // Bone rotations
+            ANGLE_STEP = 2f; // Body yaw and light angles, in degrees
+
+    // Keyed by a 64 bit hash of the model identity, the quantized pose and the angle buckets, oldest entries first
+    private static final Long2ObjectLinkedOpenHashMap<Entry> POLYGONS = new Long2ObjectLinkedOpenHashMap<>();
+
+    // Everything the polygons were built from, compared on every hit so two inputs sharing a key can't swap shadows. The
+    // model is only weakly held, a new model at the identity hash of an unloaded one won't match it
+    private record Entry(WeakReference<Object> model, long poseHash, int bodyYaw, int horizontalAngle, int verticalAngle, int size, int offset, PolygonBuffer polygons) {
+        private boolean matches(Object model, long poseHash, int bodyYaw, int horizontalAngle, int verticalAngle, int size, int offset) {
+            return this.model.get() == model && this.poseHash == poseHash && this.bodyYaw == bodyYaw
+                    && this.horizontalAngle == horizontalAngle && this.verticalAngle == verticalAngle
+                    && this.size == size && this.offset == offset;
+        }
+    }
+
+    private static long hits, misses;
+
+    public static long getPoseHash(float[] bones, int boneCount) {
+        long hash = 1;
+        for (int i = 0; i < boneCount; i++) {
+            int bone = i * BONE_STRIDE;
+            hash = mix(hash, quantize(bones[bone + BONE_POS_X], PIXEL));
+            hash = mix(hash, quantize(bones[bone + BONE_POS_Y], PIXEL));
+            hash = mix(hash, quantize(bones[bone + BONE_POS_Z], PIXEL));
+            hash = mix(hash, quantize(bones[bone + BONE_PITCH], ROTATION_STEP));
+            hash = mix(hash, quantize(bones[bone + BONE_YAW], ROTATION_STEP));
+            hash = mix(hash, quantize(bones[bone + BONE_ROLL], ROTATION_STEP));
+            hash = mix(hash, quantize(bones[bone + BONE_SIZE_X], PIXEL));
+            hash = mix(hash, quantize(bones[bone + BONE_SIZE_Y], PIXEL));
+            hash = mix(hash, quantize(bones[bone + BONE_SIZE_Z], PIXEL));
+        }
+        return hash;
+    }
+
+    public static synchronized PolygonBuffer get(Object model, long poseHash, float bodyYaw, float horizontalAngle, float verticalAngle, float size, float offset) {
+        int
+                yawStep = quantize(bodyYaw, ANGLE_STEP),
+                horizontalStep = quantize(horizontalAngle, ANGLE_STEP),
+                verticalStep = quantize(verticalAngle, ANGLE_STEP),
+                sizeStep = quantize(size, PIXEL),
+                offsetStep = quantize(offset, PIXEL);
+
+        Entry entry = POLYGONS.getAndMoveToLast(getKey(model, poseHash, yawStep, horizontalStep, verticalStep, sizeStep, offsetStep));
+        if (entry == null || !entry.matches(model, poseHash, yawStep, horizontalStep, verticalStep, sizeStep, offsetStep)) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.polygons();
+    }
+
+    // The stored polygons are shared between frames and must not be modified
+    public static synchronized void put(Object model, long poseHash, float bodyYaw, float horizontalAngle, float verticalAngle, float size, float offset, PolygonBuffer polygons) {
+        int
+                yawStep = quantize(bodyYaw, ANGLE_STEP),
+                horizontalStep = quantize(horizontalAngle, ANGLE_STEP),
+                verticalStep = quantize(verticalAngle, ANGLE_STEP),
+                sizeStep = quantize(size, PIXEL),
+                offsetStep = quantize(offset, PIXEL);
+
+        Entry entry = new Entry(new WeakReference<>(model), poseHash, yawStep, horizontalStep, verticalStep, sizeStep, offsetStep, polygons);
+        POLYGONS.putAndMoveToLast(getKey(model, poseHash, yawStep, horizontalStep, verticalStep, sizeStep, offsetStep), entry);
+        if (POLYGONS.size() > MAX_ENTRIES) POLYGONS.removeFirst();
+    }
+
+    public static synchronized void clear() {
+        POLYGONS.clear();
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    public static synchronized float getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (float) hits / total;
+    }
+
+    public static synchronized int size() {
+        return POLYGONS.size();
+    }
+
+    private static long getKey(Object model, long poseHash, int bodyYaw, int horizontalAngle, int verticalAngle, int size, int offset) {
+        long key = mix(poseHash, System.identityHashCode(model));
+        key = mix(key, bodyYaw);
+        key = mix(key, horizontalAngle);
+        key = mix(key, verticalAngle);
+        key = mix(key, size);
+        key = mix(key, offset);
+        return finish(key);
+    }
+
+    private static int quantize(float value, float step) {
+        return Math.round(value / step);
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash + value) * 0x9E3779B97F4A7C15L;
+    }
+
+    // Spreads the bits so close keys don't end up in neighbouring buckets
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,83 @@
+package fabric.humnyas.undershadowed.geometry;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+// The corner loops on the incubating Vector API. The 8 corners of a bone fill one 256 bit vector, projection and
+// rotation run over as many lanes as the CPU has. Gives the same results as ScalarCornerKernel, operation for operation.
+// Only loaded once ShadowGeometry.setVectorKernel has made sure jdk.incubator.vector is there
+public class VectorCornerKernel implements CornerKernel {
+    private static final VectorSpecies<Float>
+            CORNERS = FloatVector.SPECIES_256,
+            LANES = FloatVector.SPECIES_PREFERRED;
+    private static final float EPSILON = 1e-2f;
+
+    // Corner signs along the box axes, in the corner order of ScalarCornerKernel
+    private static final FloatVector
+            SIGN_X = FloatVector.fromArray(CORNERS, new float[] {1, -1, 1, -1, 1, -1, 1, -1}, 0),
+            SIGN_Y = FloatVector.fromArray(CORNERS, new float[] {-1, -1, 1, 1, -1, -1, 1, 1}, 0),
+            SIGN_Z = FloatVector.fromArray(CORNERS, new float[] {1, 1, 1, 1, -1, -1, -1, -1}, 0);
+
+    // Packed points alternate x and y lanes, swapping each pair of neighbouring lanes puts every x next to its y
+    private static final VectorShuffle<Float> SWAP_PAIRS = VectorShuffle.fromOp(LANES, i -> i ^ 1);
+    private static final VectorMask<Float> Y_LANES = VectorMask.fromLong(LANES, 0xAAAAAAAAAAAAAAAAL);
+
+    // Narrower vectors would be split up or emulated, which is slower than the scalar loops
+    public static boolean isSupported() {
+        return LANES.vectorBitSize() >= 256;
+    }
+
+    @Override
+    public void transformCorners(float[] frames, int boneCount, float[] cornerX, float[] cornerY, float[] cornerZ) {
+        for (int i = 0; i < boneCount; i++) {
+            int frame = i * FRAME_STRIDE, corner = i * 8;
+
+            SIGN_X.mul(frames[frame + 3]).add(SIGN_Y.mul(frames[frame + 6])).add(SIGN_Z.mul(frames[frame + 9]).add(frames[frame])).intoArray(cornerX, corner);
+            SIGN_X.mul(frames[frame + 4]).add(SIGN_Y.mul(frames[frame + 7])).add(SIGN_Z.mul(frames[frame + 10]).add(frames[frame + 1])).intoArray(cornerY, corner);
+            SIGN_X.mul(frames[frame + 5]).add(SIGN_Y.mul(frames[frame + 8])).add(SIGN_Z.mul(frames[frame + 11]).add(frames[frame + 2])).intoArray(cornerZ, corner);
+        }
+    }
+
+    @Override
+    public void projectCorners(float[] cornerX, float[] cornerZ, int count, float cos, float sin, float[] out) {
+        int i = 0;
+        for (int bound = LANES.loopBound(count); i < bound; i += LANES.length()) {
+            FloatVector
+                    x = FloatVector.fromArray(LANES, cornerX, i),
+                    z = FloatVector.fromArray(LANES, cornerZ, i);
+            nudge(x.mul(cos).sub(z.mul(sin))).intoArray(out, i);
+        }
+
+        ScalarCornerKernel.projectCorners(cornerX, cornerZ, i, count, cos, sin, out);
+    }
+
+    @Override
+    public void rotatePoints(float[] coords, int count, float cos, float sin, float offsetY) {
+        FloatVector
+                offset = FloatVector.zero(LANES).blend(offsetY, Y_LANES),
+                signedSin = FloatVector.broadcast(LANES, sin).blend(-sin, Y_LANES.not()); // -sin for x, sin for y
+
+        int i = 0, floats = count * 2;
+        for (int bound = LANES.loopBound(floats); i < bound; i += LANES.length()) {
+            FloatVector translated = FloatVector.fromArray(LANES, coords, i).sub(offset);
+            nudge(translated.mul(cos).add(translated.rearrange(SWAP_PAIRS).mul(signedSin))).intoArray(coords, i);
+        }
+
+        ScalarCornerKernel.rotatePoints(coords, i, floats, cos, sin, offsetY);
+    }
+
+    // Same as ScalarCornerKernel.nudge for every lane
+    private static FloatVector nudge(FloatVector values) {
+        VectorMask<Float> small = values.abs().lt(EPSILON);
+        if (!small.anyTrue()) return values;
+
+        FloatVector shifted = values.add(EPSILON / 10);
+        FloatVector nudged = values.broadcast(0)
+                .blend(EPSILON, shifted.compare(VectorOperators.GT, 0))
+                .blend(-EPSILON, shifted.compare(VectorOperators.LT, 0));
+        return values.blend(nudged, small);
+    }
+}
@@ -0,0 +1,150 @@
+package fabric.humnyas.undershadowed.math;
+
+// Packed 2D polygons. Every polygon is an (offset, length) pair of point indices into one shared coordinate array,
+// where point i is stored at coords[i * 2] (x) and coords[i * 2 + 1] (y)
+public class PolygonBuffer {
+    private float[] coords;
+    private int[] offsets, lengths;
+    private int pointCount, polygonCount, openOffset;
+
+    public PolygonBuffer() {
+        this(64, 8);
+    }
+
+    public PolygonBuffer(int pointCapacity, int polygonCapacity) {
+        coords = new float[Math.max(pointCapacity, 1) * 2];
+        offsets = new int[Math.max(polygonCapacity, 1)];
+        lengths = new int[Math.max(polygonCapacity, 1)];
+    }
+
+    public void clear() {
+        pointCount = 0;
+        polygonCount = 0;
+    }
+
+    public void beginPolygon() {
+        openOffset = pointCount;
+    }
+
+    public void addPoint(float x, float y) {
+        ensurePointCapacity(pointCount + 1);
+        coords[pointCount * 2] = x;
+        coords[pointCount * 2 + 1] = y;
+        pointCount++;
+    }
+
+    // Closes the polygon started by beginPolygon, it is dropped if it has fewer than minPoints points
+    public void endPolygon(int minPoints) {
+        int length = pointCount - openOffset;
+        if (length < minPoints) {
+            pointCount = openOffset;
+            return;
+        }
+
+        ensurePolygonCapacity(polygonCount + 1);
+        offsets[polygonCount] = openOffset;
+        lengths[polygonCount] = length;
+        polygonCount++;
+    }
+
+    // Adds count packed points from source (starting at point index start) as a new polygon
+    public void addPolygon(float[] source, int start, int count) {
+        ensurePointCapacity(pointCount + count);
+        ensurePolygonCapacity(polygonCount + 1);
+
+        System.arraycopy(source, start * 2, coords, pointCount * 2, count * 2);
+        offsets[polygonCount] = pointCount;
+        lengths[polygonCount] = count;
+        pointCount += count;
+        polygonCount++;
+    }
+
+    // Same as above, with the x and y coordinates in separate arrays
+    public void addPolygon(float[] sourceX, float[] sourceY, int start, int count) {
+        ensurePointCapacity(pointCount + count);
+        ensurePolygonCapacity(polygonCount + 1);
+
+        for (int i = 0; i < count; i++) {
+            coords[(pointCount + i) * 2] = sourceX[start + i];
+            coords[(pointCount + i) * 2 + 1] = sourceY[start + i];
+        }
+        offsets[polygonCount] = pointCount;
+        lengths[polygonCount] = count;
+        pointCount += count;
+        polygonCount++;
+    }
+
+    public void addAll(PolygonBuffer other) {
+        ensurePointCapacity(pointCount + other.pointCount);
+        ensurePolygonCapacity(polygonCount + other.polygonCount);
+
+        System.arraycopy(other.coords, 0, coords, pointCount * 2, other.pointCount * 2);
+        for (int i = 0; i < other.polygonCount; i++) {
+            offsets[polygonCount + i] = other.offsets[i] + pointCount;
+            lengths[polygonCount + i] = other.lengths[i];
+        }
+
+        pointCount += other.pointCount;
+        polygonCount += other.polygonCount;
+    }
+
+    // A tightly sized copy, for keeping results around after the buffer is reused
+    public PolygonBuffer copy() {
+        PolygonBuffer copy = new PolygonBuffer(pointCount, polygonCount);
+        copy.addAll(this);
+        return copy;
+    }
+
+    public int getPolygonCount() {
+        return polygonCount;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public int getOffset(int polygon) {
+        return offsets[polygon];
+    }
+
+    public int getLength(int polygon) {
+        return lengths[polygon];
+    }
+
+    public float getX(int point) {
+        return coords[point * 2];
+    }
+
+    public float getY(int point) {
+        return coords[point * 2 + 1];
+    }
+
+    public void setPoint(int point, float x, float y) {
+        coords[point * 2] = x;
+        coords[point * 2 + 1] = y;
+    }
+
+    // The backing array, only valid until the next point is added
+    public float[] getCoords() {
+        return coords;
+    }
+
+    private void ensurePointCapacity(int points) {
+        if (points * 2 > coords.length) {
+            float[] grown = new float[Math.max(points * 2, coords.length * 2)];
+            System.arraycopy(coords, 0, grown, 0, pointCount * 2);
+            coords = grown;
+        }
+    }
+
+    private void ensurePolygonCapacity(int polygons) {
+        if (polygons > offsets.length) {
+            int capacity = Math.max(polygons, offsets.length * 2);
+            int[] grownOffsets = new int[capacity], grownLengths = new int[capacity];
+            System.arraycopy(offsets, 0, grownOffsets, 0, polygonCount);
+            System.arraycopy(lengths, 0, grownLengths, 0, polygonCount);
+            offsets = grownOffsets;
+            lengths = grownLengths;
+        }
+    }
+}
@@ -1,174 +1,828 @@
 package fabric.humnyas.undershadowed.math;
 
-import net.minecraft.util.math.Vec2f;
-
-import java.util.*;
+import java.util.Arrays;
 
 @SuppressWarnings("unused")
 public class PolygonMath {
-    // Polygon processing
-    public static List<Vec2f> convexHull(List<Vec2f> points) {
-        if (points.size() <= 3) return new ArrayList<>(points);
-        Stack<Vec2f> stack = new Stack<>();
-
-        // Finds the lowest X and Y (anchor point)
-        points.sort((a, b) -> {
-            int cmp = Float.compare(a.y, b.y);
-            if (cmp == 0) return Float.compare(a.x, b.x);
-            return cmp;
-        });
-        Vec2f p0 = points.get(0);
-
-        sortByAngle(points, p0);
-
-        stack.push(p0);
-        for (Vec2f p : points.subList(1, points.size())) {
-            while (stack.size() >= 2) {
-                Vec2f q = stack.get(stack.size() - 2);
-                Vec2f r = stack.peek();
-                if (crossProduct(q, r, p) <= 0) stack.pop();
-                else break;
-            }
-            stack.push(p);
-        }
-
-        return new ArrayList<>(stack);
-    } // Convex hull via Graham scan
-
-    public static List<List<Vec2f>> earClipPolygon(List<Vec2f> polygon) {
-        List<List<Vec2f>> triangles = new ArrayList<>();
-        List<Vec2f> vertices = new ArrayList<>(polygon);
-
-        int loopLimit = 100;
-        while (vertices.size() >= 3 && loopLimit-- > 0) {
-            boolean earFound = false;
-
-            for (int i = 0; i < vertices.size(); i++) {
-                Vec2f prev = getCircular(vertices, i - 1);
-                Vec2f curr = getCircular(vertices, i);
-                Vec2f next = getCircular(vertices, i + 1);
-
-                if (crossProduct(prev, curr, next) < 0) continue;
-
-                boolean hasPointInside = false;
-                for (int j = 0; j < vertices.size(); j++) {
-                    if (j == (i - 1 + vertices.size()) % vertices.size() ||
-                            j == i || j == (i + 1) % vertices.size()) continue;
-
-                    if (isPointInTriangle(vertices.get(j), prev, curr, next)) {
-                        hasPointInside = true;
-                        break;
+    // Packed polygon processing, points are stored as x, y pairs (see PolygonBuffer) and nothing is allocated
+    // Writes the hull counter-clockwise to out (which needs room for count + 1 points) and returns its size.
+    // Sorts the points in place, only uses cross products
+    public static int convexHull(float[] points, int count, float[] out) {
+        if (count < 3) {
+            System.arraycopy(points, 0, out, 0, count * 2);
+            return count;
+        }
+
+        sortByXY(points, count);
+
+        // Lower hull, left to right
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            size = pushHullPoint(out, size, 2, points[i * 2], points[i * 2 + 1]);
+        }
+
+        // Upper hull, right to left, ends back on the first point
+        int lowerSize = size + 1;
+        for (int i = count - 2; i >= 0; i--) {
+            size = pushHullPoint(out, size, lowerSize, points[i * 2], points[i * 2 + 1]);
+        }
+
+        return size - 1;
+    } // Convex hull via Andrew's monotone chain
+
+    // Pops points that would make a clockwise or straight turn, then pushes the new one. Returns the new size
+    private static int pushHullPoint(float[] hull, int size, int minSize, float x, float y) {
+        while (size >= minSize && crossProduct(hull[(size - 2) * 2], hull[(size - 2) * 2 + 1], hull[(size - 1) * 2], hull[(size - 1) * 2 + 1], x, y) <= 0) {
+            size--;
+        }
+        hull[size * 2] = x;
+        hull[size * 2 + 1] = y;
+        return size + 1;
+    }
+
+    // Shell sort on the packed points, by x then y
+    private static void sortByXY(float[] points, int count) {
+        for (int gap = count / 2; gap > 0; gap /= 2) {
+            for (int i = gap; i < count; i++) {
+                float x = points[i * 2], y = points[i * 2 + 1];
+                int j = i;
+                while (j >= gap && compareXY(points[(j - gap) * 2], points[(j - gap) * 2 + 1], x, y) > 0) {
+                    points[j * 2] = points[(j - gap) * 2];
+                    points[j * 2 + 1] = points[(j - gap) * 2 + 1];
+                    j -= gap;
+                }
+                points[j * 2] = x;
+                points[j * 2 + 1] = y;
+            }
+        }
+    }
+
+    // Triangulates one polygon of packed coordinates (point indices start to start + count), writing the triangles as
+    // point indices into out and returning how many indices were written, at most (count - 2) * 3.
+    // Convex polygons become a fan, anything else is ear clipped. scratch needs room for count * 3 ints
+    public static int triangulate(float[] coords, int start, int count, int[] out, int[] scratch) {
+        if (count < 3) return 0;
+        if (isConvex(coords, start, count)) return triangulateFan(start, count, out);
+
+        return earClipPolygon(coords, start, count, out, scratch);
+    }
+
+    // Every turn goes the same way and the edges only change horizontal direction twice (rules out star shapes)
+    public static boolean isConvex(float[] coords, int start, int count) {
+        boolean hasPositive = false, hasNegative = false;
+        float firstDx = 0, lastDx = 0;
+        int directionChanges = 0;
+
+        for (int i = 0; i < count; i++) {
+            int
+                    a = start + i,
+                    b = start + (i + 1) % count,
+                    c = start + (i + 2) % count;
+
+            // A repeated point hides the turn at it from both cross products, ear clipping drops it instead
+            if (isSamePoint(coords, a, b)) return false;
+
+            float cross = crossProduct(coords, a, b, c);
+            if (cross > 0) hasPositive = true;
+            else if (cross < 0) hasNegative = true;
+            if (hasPositive && hasNegative) return false;
+
+            float dx = coords[b * 2] - coords[a * 2];
+            if (dx != 0) {
+                if (firstDx == 0) firstDx = dx;
+                else if ((dx > 0) != (lastDx > 0)) directionChanges++;
+                lastDx = dx;
+            }
+        }
+        if (lastDx != 0 && (firstDx > 0) != (lastDx > 0)) directionChanges++;
+
+        return directionChanges <= 2;
+    }
+
+    private static int triangulateFan(int start, int count, int[] out) {
+        int written = 0;
+        for (int i = 1; i < count - 1; i++) {
+            out[written++] = start;
+            out[written++] = start + i;
+            out[written++] = start + i + 1;
+        }
+        return written;
+    }
+
+    // Ear clipping over an index linked list, so removing an ear is O(1) and the search carries on from the next vertex
+    // instead of restarting. Only reflex vertices can be inside an ear, so they are the only ones tested against it. Straight
+    // ones are tested too, a repeated point makes the reflex turn next to it look straight
+    private static int earClipPolygon(float[] coords, int start, int count, int[] out, int[] scratch) {
+        // scratch holds the previous links, then the next links, then the reflex flags
+        int prevLinks = 0, nextLinks = count, reflexFlags = count * 2;
+
+        float area = 0;
+        for (int i = 0; i < count; i++) {
+            int a = start + i, b = start + (i + 1) % count;
+            area += coords[a * 2] * coords[b * 2 + 1] - coords[b * 2] * coords[a * 2 + 1];
+        }
+        if (area == 0) return 0;
+        float orientation = area > 0 ? 1 : -1; // Lets clockwise input use the same tests
+
+        for (int i = 0; i < count; i++) {
+            scratch[prevLinks + i] = (i - 1 + count) % count;
+            scratch[nextLinks + i] = (i + 1) % count;
+        }
+        for (int i = 0; i < count; i++) {
+            scratch[reflexFlags + i] = getTurn(coords, start, scratch, count, i, orientation) <= 0 ? 1 : 0;
+        }
+
+        int remaining = count, written = 0, vertex = 0, stalled = 0;
+        float earEpsilon = EAR_EPSILON;
+        while (remaining > 3) {
+            int
+                    prev = scratch[prevLinks + vertex],
+                    next = scratch[nextLinks + vertex];
+            float turn = getTurn(coords, start, scratch, count, vertex, orientation);
+
+            // Straight or folded back vertices add no area, they are dropped without a triangle
+            boolean degenerate = turn == 0;
+            if (degenerate || (turn > 0 && isEar(coords, start, scratch, count, prev, vertex, next, orientation, earEpsilon))) {
+                if (!degenerate) {
+                    out[written++] = start + prev;
+                    out[written++] = start + vertex;
+                    out[written++] = start + next;
+                }
+
+                scratch[nextLinks + prev] = next;
+                scratch[prevLinks + next] = prev;
+                remaining--;
+
+                scratch[reflexFlags + prev] = getTurn(coords, start, scratch, count, prev, orientation) <= 0 ? 1 : 0;
+                scratch[reflexFlags + next] = getTurn(coords, start, scratch, count, next, orientation) <= 0 ? 1 : 0;
+
+                vertex = next;
+                stalled = 0;
+                continue;
+            }
+
+            vertex = next;
+            if (++stalled <= remaining) continue;
+
+            // No ears left with the margin, the last few vertices are too close together for it. Try once more without it
+            // before giving up, after that the polygon intersects itself
+            if (earEpsilon == 0) break;
+            earEpsilon = 0;
+            stalled = 0;
+        }
+
+        // What is left of a polygon that intersects itself is dropped, any triangle over it could land outside of the
+        // outline or on top of the others and be drawn darker
+        if (remaining > 3) return written;
+
+        // The last triangle
+        int second = scratch[nextLinks + vertex];
+        out[written++] = start + vertex;
+        out[written++] = start + second;
+        out[written++] = start + scratch[nextLinks + second];
+        return written;
+    } // Turns a polygon into triangles
+
+    // Positive when the polygon turns the same way as its winding at the vertex (local indices)
+    private static float getTurn(float[] coords, int start, int[] scratch, int count, int vertex, float orientation) {
+        return orientation * crossProduct(coords, start + scratch[vertex], start + vertex, start + scratch[count + vertex]);
+    }
+
+    // A reflex vertex inside the triangle, or closer to one of its sides than the epsilon, blocks the ear. Rounding can put
+    // a vertex that sits on the diagonal just outside of it, clipping there would leave overlapping triangles
+    private static boolean isEar(float[] coords, int start, int[] scratch, int count, int prev, int vertex, int next, float orientation, float epsilon) {
+        int
+                a = start + prev,
+                b = start + vertex,
+                c = start + next;
+
+        // The cross product of a side and a point is the side length times the distance of the point
+        float
+                abTolerance = -epsilon * distance(coords, a, b),
+                bcTolerance = -epsilon * distance(coords, b, c),
+                caTolerance = -epsilon * distance(coords, c, a);
+
+        for (int other = scratch[count + next]; other != prev; other = scratch[count + other]) {
+            if (scratch[count * 2 + other] == 0) continue;
+
+            int point = start + other;
+            if (isSamePoint(coords, point, a) || isSamePoint(coords, point, b) || isSamePoint(coords, point, c)) continue;
+
+            if (orientation * crossProduct(coords, a, b, point) >= abTolerance
+                    && orientation * crossProduct(coords, b, c, point) >= bcTolerance
+                    && orientation * crossProduct(coords, c, a, point) >= caTolerance) return false;
+        }
+        return true;
+    }
+
+    private static final float EAR_EPSILON = 1e-4f;
+
+    private static float distance(float[] coords, int a, int b) {
+        float dx = coords[b * 2] - coords[a * 2], dy = coords[b * 2 + 1] - coords[a * 2 + 1];
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static boolean isSamePoint(float[] coords, int a, int b) {
+        return coords[a * 2] == coords[b * 2] && coords[a * 2 + 1] == coords[b * 2 + 1];
+    }
+
+    // Merges overlapping (roughly) convex polygons into their outline, which can come out as several polygons when the
+    // input falls apart. The plane is cut into vertical slabs at every vertex and edge crossing, inside a slab every
+    // polygon is a trapezoid so the union is just merged y intervals. The outline is then traced over the trapezoid
+    // corners, which are matched up by index instead of by position so the near-duplicate points and slivers from the
+    // epsilon clamping can't leave it open. An outline with a hole can't be ear clipped, then the trapezoids are used
+    public static void unionConvex(PolygonBuffer polygons, PolygonBuffer out, UnionScratch scratch) {
+        out.clear();
+        if (polygons.getPolygonCount() <= 1) {
+            out.addAll(polygons);
+            return;
+        }
+
+        int boundaries = sliceSlabs(polygons, scratch);
+        if (boundaries < 2) return;
+
+        addOutlineVertices(scratch, boundaries);
+        addOutlineEdges(scratch, boundaries);
+
+        if (!traceOutlines(scratch, out)) {
+            out.clear();
+            addTrapezoids(scratch, boundaries, out);
+        }
+    }
+
+    private static final float UNION_EPSILON = 1e-4f, SPIKE_WIDTH = 1e-3f, MIN_HOLE_AREA = 1e-3f;
+
+    // Fills the slab boundaries and the merged trapezoids of every slab, returns the number of boundaries
+    private static int sliceSlabs(PolygonBuffer polygons, UnionScratch scratch) {
+        float[] coords = polygons.getCoords();
+        int polygonCount = polygons.getPolygonCount();
+        scratch.ensurePolygons(polygonCount);
+
+        // Bounds of every polygon, to skip pairs that can't touch
+        int xCount = 0;
+        for (int i = 0; i < polygonCount; i++) {
+            int offset = polygons.getOffset(i), length = polygons.getLength(i);
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+
+            for (int j = offset; j < offset + length; j++) {
+                float x = coords[j * 2], y = coords[j * 2 + 1];
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+
+                xCount = scratch.addX(xCount, x);
+            }
+
+            scratch.bounds[i * 4] = minX;
+            scratch.bounds[i * 4 + 1] = minY;
+            scratch.bounds[i * 4 + 2] = maxX;
+            scratch.bounds[i * 4 + 3] = maxY;
+        }
+
+        // Slab boundaries also go wherever the edges of two polygons cross
+        for (int i = 0; i < polygonCount; i++) {
+            for (int j = i + 1; j < polygonCount; j++) {
+                if (!boundsOverlap(scratch.bounds, i, j)) continue;
+                xCount = addCrossings(coords, polygons, i, j, scratch, xCount);
+            }
+        }
+
+        float[] xs = scratch.xs;
+        Arrays.sort(xs, 0, xCount);
+        int boundaries = 0;
+        for (int i = 0; i < xCount; i++) {
+            if (boundaries == 0 || xs[i] - xs[boundaries - 1] > UNION_EPSILON) xs[boundaries++] = xs[i];
+        }
+
+        scratch.ensureBoundaries(boundaries);
+        scratch.trapezoidCount = 0;
+        for (int slab = 0; slab < boundaries - 1; slab++) {
+            scratch.slabStart[slab] = scratch.trapezoidCount;
+            float
+                    x0 = xs[slab],
+                    x1 = xs[slab + 1],
+                    xm = (x0 + x1) / 2;
+
+            // The y interval of every polygon in this slab, described by its bottom and top edge
+            int intervals = 0;
+            for (int i = 0; i < polygonCount; i++) {
+                if (scratch.bounds[i * 4] >= xm || scratch.bounds[i * 4 + 2] <= xm) continue;
+                if (addInterval(coords, polygons, i, x0, x1, xm, scratch, intervals)) intervals++;
+            }
+
+            // Sorted by their bottom, overlapping intervals become one trapezoid
+            sortIntervals(scratch, intervals);
+
+            float[] interval = scratch.intervals;
+            for (int i = 0; i < intervals; ) {
+                int first = scratch.order[i];
+                float
+                        lower0 = interval[first * 6], lower1 = interval[first * 6 + 1],
+                        upper0 = interval[first * 6 + 2], upper1 = interval[first * 6 + 3],
+                        upperMid = interval[first * 6 + 5];
+
+                for (i++; i < intervals; i++) {
+                    int other = scratch.order[i];
+                    if (interval[other * 6 + 4] > upperMid + UNION_EPSILON) break;
+
+                    if (interval[other * 6 + 5] > upperMid) {
+                        upper0 = interval[other * 6 + 2];
+                        upper1 = interval[other * 6 + 3];
+                        upperMid = interval[other * 6 + 5];
                     }
                 }
 
-                if (!hasPointInside) {
-                    List<Vec2f> triangle = Arrays.asList(prev, curr, next);
-                    triangles.add(triangle);
-                    vertices.remove(i);
-                    earFound = true;
-                    break;
+                scratch.addTrapezoid(lower0, lower1, upper0, upper1);
+            }
+        }
+        if (boundaries > 0) scratch.slabStart[boundaries - 1] = scratch.trapezoidCount;
+
+        return boundaries;
+    }
+
+    private static boolean boundsOverlap(float[] bounds, int a, int b) {
+        return bounds[a * 4] <= bounds[b * 4 + 2] && bounds[b * 4] <= bounds[a * 4 + 2]
+                && bounds[a * 4 + 1] <= bounds[b * 4 + 3] && bounds[b * 4 + 1] <= bounds[a * 4 + 3];
+    }
+
+    private static int addCrossings(float[] coords, PolygonBuffer polygons, int a, int b, UnionScratch scratch, int xCount) {
+        int offsetA = polygons.getOffset(a), lengthA = polygons.getLength(a);
+        int offsetB = polygons.getOffset(b), lengthB = polygons.getLength(b);
+
+        for (int i = 0; i < lengthA; i++) {
+            int p1 = offsetA + i, p2 = offsetA + (i + 1) % lengthA;
+            float
+                    px = coords[p1 * 2], py = coords[p1 * 2 + 1],
+                    rx = coords[p2 * 2] - px, ry = coords[p2 * 2 + 1] - py;
+
+            for (int j = 0; j < lengthB; j++) {
+                int q1 = offsetB + j, q2 = offsetB + (j + 1) % lengthB;
+                float
+                        qx = coords[q1 * 2], qy = coords[q1 * 2 + 1],
+                        sx = coords[q2 * 2] - qx, sy = coords[q2 * 2 + 1] - qy,
+                        denominator = rx * sy - ry * sx;
+                if (Math.abs(denominator) < 1e-12f) continue; // Parallel
+
+                float
+                        t = ((qx - px) * sy - (qy - py) * sx) / denominator,
+                        u = ((qx - px) * ry - (qy - py) * rx) / denominator;
+
+                if (t > 0 && t < 1 && u > 0 && u < 1) xCount = scratch.addX(xCount, px + t * rx);
+            }
+        }
+        return xCount;
+    }
+
+    // Finds the bottom and top edge of the polygon at xm and stores their heights at both sides of the slab
+    private static boolean addInterval(float[] coords, PolygonBuffer polygons, int polygon, float x0, float x1, float xm, UnionScratch scratch, int interval) {
+        int offset = polygons.getOffset(polygon), length = polygons.getLength(polygon);
+        float lowerMid = Float.POSITIVE_INFINITY, upperMid = Float.NEGATIVE_INFINITY;
+        int lowerEdge = -1, upperEdge = -1;
+
+        for (int i = 0; i < length; i++) {
+            int a = offset + i, b = offset + (i + 1) % length;
+            if ((coords[a * 2] < xm) == (coords[b * 2] < xm)) continue;
+
+            float y = edgeY(coords, a, b, xm);
+            if (y < lowerMid) {
+                lowerMid = y;
+                lowerEdge = i;
+            }
+            if (y > upperMid) {
+                upperMid = y;
+                upperEdge = i;
+            }
+        }
+        if (lowerEdge < 0 || upperMid <= lowerMid) return false;
+
+        int
+                lowerA = offset + lowerEdge, lowerB = offset + (lowerEdge + 1) % length,
+                upperA = offset + upperEdge, upperB = offset + (upperEdge + 1) % length;
+
+        float[] intervals = scratch.intervals;
+        intervals[interval * 6] = edgeY(coords, lowerA, lowerB, x0);
+        intervals[interval * 6 + 1] = edgeY(coords, lowerA, lowerB, x1);
+        intervals[interval * 6 + 2] = edgeY(coords, upperA, upperB, x0);
+        intervals[interval * 6 + 3] = edgeY(coords, upperA, upperB, x1);
+        intervals[interval * 6 + 4] = lowerMid;
+        intervals[interval * 6 + 5] = upperMid;
+        return true;
+    }
+
+    private static float edgeY(float[] coords, int a, int b, float x) {
+        float ax = coords[a * 2], ay = coords[a * 2 + 1], bx = coords[b * 2], by = coords[b * 2 + 1];
+        return ay + (by - ay) * (x - ax) / (bx - ax);
+    }
+
+    private static void sortIntervals(UnionScratch scratch, int count) {
+        int[] order = scratch.order;
+        float[] intervals = scratch.intervals;
+
+        for (int i = 0; i < count; i++) {
+            float lowerMid = intervals[i * 6 + 4];
+            int j = i - 1;
+            while (j >= 0 && intervals[order[j] * 6 + 4] > lowerMid) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = i;
+        }
+    }
+
+    // Every trapezoid corner on a boundary becomes a vertex, corners closer than the epsilon share one
+    private static void addOutlineVertices(UnionScratch scratch, int boundaries) {
+        int vertexCount = 0;
+
+        for (int b = 0; b < boundaries; b++) {
+            scratch.boundaryStart[b] = vertexCount;
+
+            // Right ends of the slab on the left, left ends of the slab on the right
+            int yCount = 0;
+            if (b > 0) {
+                for (int t = scratch.slabStart[b - 1]; t < scratch.slabStart[b]; t++) {
+                    yCount = scratch.addY(yCount, scratch.trapezoids[t * 4 + 1]);
+                    yCount = scratch.addY(yCount, scratch.trapezoids[t * 4 + 3]);
+                }
+            }
+            if (b < boundaries - 1) {
+                for (int t = scratch.slabStart[b]; t < scratch.slabStart[b + 1]; t++) {
+                    yCount = scratch.addY(yCount, scratch.trapezoids[t * 4]);
+                    yCount = scratch.addY(yCount, scratch.trapezoids[t * 4 + 2]);
                 }
             }
 
-            if (!earFound) {
-                break;
+            float[] ys = scratch.ys;
+            Arrays.sort(ys, 0, yCount);
+            for (int i = 0; i < yCount; i++) {
+                if (i > 0 && ys[i] - ys[i - 1] <= UNION_EPSILON) {
+                    scratch.vertexMax[vertexCount - 1] = ys[i];
+                    continue;
+                }
+
+                scratch.ensureVertices(vertexCount + 1);
+                scratch.vertexX[vertexCount] = scratch.xs[b];
+                scratch.vertexY[vertexCount] = ys[i];
+                scratch.vertexMax[vertexCount] = ys[i];
+                vertexCount++;
             }
         }
 
-        return triangles;
-    } // Turns a polygon into triangles
+        scratch.boundaryStart[boundaries] = vertexCount;
+        scratch.vertexCount = vertexCount;
+    }
+
+    // The vertex on boundary b that a trapezoid corner at y was merged into
+    private static int findVertex(UnionScratch scratch, int b, float y) {
+        int low = scratch.boundaryStart[b], high = scratch.boundaryStart[b + 1] - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (scratch.vertexMax[middle] < y) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
 
-    public static List<Vec2f> removeColinearPoints(List<Vec2f> vertices, float epsilon) {
-        List<Vec2f> cleaned = new ArrayList<>();
-        int n = vertices.size();
-        for (int i = 0; i < n; i++) {
-            Vec2f prev = vertices.get((i - 1 + n) % n);
-            Vec2f curr = vertices.get(i);
-            Vec2f next = vertices.get((i + 1) % n);
+    // Trapezoid bottoms run left to right and tops right to left, vertical edges go wherever only one side of a
+    // boundary is covered. That keeps the interior on the left and every vertex with as many edges in as out
+    private static void addOutlineEdges(UnionScratch scratch, int boundaries) {
+        scratch.edgeCount = 0;
+        Arrays.fill(scratch.firstOut, 0, scratch.vertexCount, -1);
+        float[] trapezoids = scratch.trapezoids;
 
-            if (!isColinear(prev, curr, next, epsilon)) {
-                cleaned.add(curr);
+        for (int slab = 0; slab < boundaries - 1; slab++) {
+            for (int t = scratch.slabStart[slab]; t < scratch.slabStart[slab + 1]; t++) {
+                scratch.addEdge(findVertex(scratch, slab, trapezoids[t * 4]), findVertex(scratch, slab + 1, trapezoids[t * 4 + 1]));
+                scratch.addEdge(findVertex(scratch, slab + 1, trapezoids[t * 4 + 3]), findVertex(scratch, slab, trapezoids[t * 4 + 2]));
+            }
+        }
+
+        for (int b = 0; b < boundaries; b++) {
+            int start = scratch.boundaryStart[b], gaps = scratch.boundaryStart[b + 1] - start;
+            int[] cover = scratch.cover;
+            Arrays.fill(cover, 0, gaps, 0);
+
+            // Positive where only the left slab covers the gap above a vertex, negative where only the right does
+            if (b > 0) {
+                for (int t = scratch.slabStart[b - 1]; t < scratch.slabStart[b]; t++) {
+                    int from = findVertex(scratch, b, trapezoids[t * 4 + 1]), to = findVertex(scratch, b, trapezoids[t * 4 + 3]);
+                    for (int v = from; v < to; v++) cover[v - start]++;
+                }
+            }
+            if (b < boundaries - 1) {
+                for (int t = scratch.slabStart[b]; t < scratch.slabStart[b + 1]; t++) {
+                    int from = findVertex(scratch, b, trapezoids[t * 4]), to = findVertex(scratch, b, trapezoids[t * 4 + 2]);
+                    for (int v = from; v < to; v++) cover[v - start]--;
+                }
+            }
+
+            for (int gap = 0; gap < gaps; gap++) {
+                for (int i = cover[gap]; i > 0; i--) scratch.addEdge(start + gap, start + gap + 1);
+                for (int i = cover[gap]; i < 0; i++) scratch.addEdge(start + gap + 1, start + gap);
             }
         }
-        return cleaned;
     }
 
-    public static boolean isClockwise(List<Vec2f> poly) {
-        float sum = 0f;
-        for (int i = 0; i < poly.size(); i++) {
-            Vec2f current = poly.get(i);
-            Vec2f next = poly.get((i + 1) % poly.size());
-            sum += (next.x - current.x) * (next.y + current.y);
+    // Follows the edges into closed outlines, returns false if one of them turns out to be a real hole
+    private static boolean traceOutlines(UnionScratch scratch, PolygonBuffer out) {
+        boolean[] used = scratch.used;
+        Arrays.fill(used, 0, scratch.edgeCount, false);
+
+        for (int first = 0; first < scratch.edgeCount; first++) {
+            if (used[first]) continue;
+
+            int start = scratch.edgeFrom[first], edge = first, count = 0;
+            while (edge >= 0) {
+                used[edge] = true;
+                count = scratch.addLoopPoint(count, scratch.edgeFrom[edge]);
+
+                int vertex = scratch.edgeTo[edge];
+                if (vertex == start) break;
+                edge = nextEdge(scratch, edge, vertex);
+            }
+
+            if (!splitPinches(scratch, count, out)) return false;
         }
-        return sum > 0;
+        return true;
     }
 
+    // An outline can run through the same vertex twice where two of its lobes touch in a corner. The ear clipping can't
+    // get past such a pinch, so the outline is cut into one loop per lobe there. The points are pushed on a stack and
+    // whenever a point is already on it, everything above it closes a loop
+    private static boolean splitPinches(UnionScratch scratch, int count, PolygonBuffer out) {
+        float[] loop = scratch.loop, stack = scratch.ensureStack(count);
+        int depth = 0;
 
-    // Geometric Utilities
-    public static float crossProduct(Vec2f a, Vec2f b, Vec2f c) {
+        for (int i = 0; i < count; i++) {
+            float x = loop[i * 2], y = loop[i * 2 + 1];
+
+            int repeat = depth - 1;
+            while (repeat >= 0 && (stack[repeat * 2] != x || stack[repeat * 2 + 1] != y)) repeat--;
+
+            if (repeat < 0) {
+                stack[depth * 2] = x;
+                stack[depth * 2 + 1] = y;
+                depth++;
+                continue;
+            }
+
+            if (!addLoop(scratch, stack, repeat, depth - repeat, out)) return false;
+            depth = repeat + 1;
+        }
+        return addLoop(scratch, stack, 0, depth, out);
+    }
+
+    // Adds a traced loop without its straight points, returns false if it is a real hole
+    private static boolean addLoop(UnionScratch scratch, float[] points, int offset, int count, PolygonBuffer out) {
+        float[] piece = scratch.ensurePiece(count);
+        System.arraycopy(points, offset * 2, piece, 0, count * 2);
+
+        count = removeStraightPoints(piece, count);
+        if (count < 3) return true;
+
+        float area = 0;
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            area += piece[i * 2] * piece[j * 2 + 1] - piece[j * 2] * piece[i * 2 + 1];
+        }
+
+        // Gaps thinner than a pixel between bones that touch are filled, the outline around them already covers them
+        area /= 2;
+        if (area < -MIN_HOLE_AREA) return false;
+        if (area > UNION_EPSILON * UNION_EPSILON) out.addPolygon(piece, 0, count);
+        return true;
+    }
+
+    // Where outlines touch in a single vertex there is more than one way out, taking the sharpest left turn keeps
+    // the two outlines apart
+    private static int nextEdge(UnionScratch scratch, int incoming, int vertex) {
         float
-                abx = b.x - a.x,
-                aby = b.y - a.y,
-                acx = c.x - a.x,
-                acy = c.y - a.y;
-        return abx * acy - aby * acx;
+                inX = scratch.vertexX[vertex] - scratch.vertexX[scratch.edgeFrom[incoming]],
+                inY = scratch.vertexY[vertex] - scratch.vertexY[scratch.edgeFrom[incoming]];
+
+        int best = -1;
+        double bestTurn = Double.NEGATIVE_INFINITY;
+        for (int edge = scratch.firstOut[vertex]; edge >= 0; edge = scratch.nextOut[edge]) {
+            if (scratch.used[edge]) continue;
+
+            float
+                    outX = scratch.vertexX[scratch.edgeTo[edge]] - scratch.vertexX[vertex],
+                    outY = scratch.vertexY[scratch.edgeTo[edge]] - scratch.vertexY[vertex];
+
+            double turn = Math.atan2(inX * outY - inY * outX, inX * outX + inY * outY);
+            if (turn > bestTurn) {
+                bestTurn = turn;
+                best = edge;
+            }
+        }
+        return best;
     }
 
-    private static boolean isPointInTriangle(Vec2f pt, Vec2f v1, Vec2f v2, Vec2f v3) {
-        float d1 = crossProduct(pt, v1, v2);
-        float d2 = crossProduct(pt, v2, v3);
-        float d3 = crossProduct(pt, v3, v1);
+    // Drops points that sit on a straight line between their neighbours, every slab boundary leaves one behind, and the
+    // tips of spikes where the outline runs out and doubles back at nearly the same x (a sliver of a bone poking out of
+    // the next one leaves a slab a fraction of a pixel wide). Both would later trip up the ear clipping
+    private static int removeStraightPoints(float[] loop, int count) {
+        boolean changed = true;
 
-        boolean hasNeg = (d1 < 0) || (d2 < 0) || (d3 < 0);
-        boolean hasPos = (d1 > 0) || (d2 > 0) || (d3 > 0);
+        while (changed && count >= 3) {
+            changed = false;
+            for (int i = 0; i < count && count >= 3; ) {
+                int previous = (i + count - 1) % count, next = (i + 1) % count;
+                float
+                        ax = loop[i * 2] - loop[previous * 2], ay = loop[i * 2 + 1] - loop[previous * 2 + 1],
+                        bx = loop[next * 2] - loop[i * 2], by = loop[next * 2 + 1] - loop[i * 2 + 1],
+                        cx = ax + bx, cy = ay + by,
+                        cross = ax * by - ay * bx,
+                        longest = Math.max(ax * ax + ay * ay, Math.max(bx * bx + by * by, cx * cx + cy * cy)),
+                        width = ax * bx + ay * by < 0 ? SPIKE_WIDTH : UNION_EPSILON;
 
-        return !(hasNeg && hasPos);
+                // Twice the area over the longest side is the height of the triangle with both neighbours
+                if (cross * cross <= width * width * longest && isEmptyCorner(loop, count, previous, i, next)) {
+                    System.arraycopy(loop, (i + 1) * 2, loop, i * 2, (count - i - 1) * 2);
+                    count--;
+                    changed = true;
+                } else {
+                    i++;
+                }
+            }
+        }
+        return count;
     }
 
-    private static boolean isColinear(Vec2f a, Vec2f b, Vec2f c, float epsilon) {
-        float area = Math.abs((a.x * (b.y - c.y) + b.x * (c.y - a.y) + c.x * (a.y - b.y)) / 2f);
-        return area < epsilon;
+    // Dropping a point swaps the two edges at it for the one between its neighbours. Where the outline has a narrow neck
+    // the other side can be right there, so the point stays if another point is inside the corner. Otherwise the outline
+    // would cross itself
+    private static boolean isEmptyCorner(float[] loop, int count, int previous, int corner, int next) {
+        float
+                ax = loop[previous * 2], ay = loop[previous * 2 + 1],
+                bx = loop[corner * 2], by = loop[corner * 2 + 1],
+                cx = loop[next * 2], cy = loop[next * 2 + 1];
+
+        for (int i = 0; i < count; i++) {
+            if (i == previous || i == corner || i == next) continue;
+
+            float
+                    px = loop[i * 2], py = loop[i * 2 + 1],
+                    side0 = crossProduct(ax, ay, bx, by, px, py),
+                    side1 = crossProduct(bx, by, cx, cy, px, py),
+                    side2 = crossProduct(cx, cy, ax, ay, px, py);
+            if ((side0 >= 0 && side1 >= 0 && side2 >= 0) || (side0 <= 0 && side1 <= 0 && side2 <= 0)) return false;
+        }
+        return true;
     }
 
-    public static boolean areClose(Vec2f a, Vec2f b, float epsilon) {
-        return Math.abs(a.x - b.x) < epsilon && Math.abs(a.y - b.y) < epsilon;
+    private static void addTrapezoids(UnionScratch scratch, int boundaries, PolygonBuffer out) {
+        float[] trapezoids = scratch.trapezoids;
+
+        for (int slab = 0; slab < boundaries - 1; slab++) {
+            float x0 = scratch.xs[slab], x1 = scratch.xs[slab + 1];
+
+            for (int t = scratch.slabStart[slab]; t < scratch.slabStart[slab + 1]; t++) {
+                float lower0 = trapezoids[t * 4], lower1 = trapezoids[t * 4 + 1], upper0 = trapezoids[t * 4 + 2], upper1 = trapezoids[t * 4 + 3];
+
+                out.beginPolygon();
+                out.addPoint(x0, lower0);
+                out.addPoint(x1, lower1);
+                if (upper1 - lower1 > UNION_EPSILON) out.addPoint(x1, upper1);
+                if (upper0 - lower0 > UNION_EPSILON) out.addPoint(x0, upper0);
+                out.endPolygon(3);
+            }
+        }
+    }
+
+    // Scratch memory for unionConvex, reused between calls so nothing is allocated once it has grown
+    public static class UnionScratch {
+        private float[] xs = new float[128], ys = new float[64], bounds = new float[64], intervals = new float[96], trapezoids = new float[256];
+        private float[] vertexX = new float[256], vertexY = new float[256], vertexMax = new float[256], loop = new float[256], stack = new float[256], piece = new float[256];
+        private int[] order = new int[16], slabStart = new int[128], boundaryStart = new int[129], cover = new int[256];
+        private int[] firstOut = new int[256], edgeFrom = new int[256], edgeTo = new int[256], nextOut = new int[256];
+        private boolean[] used = new boolean[256];
+        private int trapezoidCount, vertexCount, edgeCount;
+
+        private void ensurePolygons(int count) {
+            if (count * 4 > bounds.length) bounds = new float[count * 8];
+            if (count * 6 > intervals.length) intervals = new float[count * 12];
+            if (count > order.length) order = new int[count * 2];
+        }
+
+        private void ensureBoundaries(int count) {
+            if (count > slabStart.length) slabStart = new int[count * 2];
+            if (count + 1 > boundaryStart.length) boundaryStart = new int[count * 2 + 1];
+        }
+
+        private void ensureVertices(int count) {
+            if (count <= vertexX.length) return;
+
+            int capacity = Math.max(count, vertexX.length * 2);
+            vertexX = Arrays.copyOf(vertexX, capacity);
+            vertexY = Arrays.copyOf(vertexY, capacity);
+            vertexMax = Arrays.copyOf(vertexMax, capacity);
+            firstOut = new int[capacity];
+            cover = new int[capacity];
+        }
+
+        private int addX(int count, float x) {
+            if (count >= xs.length) xs = Arrays.copyOf(xs, xs.length * 2);
+            xs[count] = x;
+            return count + 1;
+        }
+
+        private int addY(int count, float y) {
+            if (count >= ys.length) ys = Arrays.copyOf(ys, ys.length * 2);
+            ys[count] = y;
+            return count + 1;
+        }
+
+        // A vertex merged into a nearby boundary can leave the edges crossed by an epsilon at one end, which is
+        // pinched to a point so every trapezoid stays a proper loop
+        private void addTrapezoid(float lower0, float lower1, float upper0, float upper1) {
+            if ((trapezoidCount + 1) * 4 > trapezoids.length) trapezoids = Arrays.copyOf(trapezoids, trapezoids.length * 2);
+            if (upper0 < lower0) lower0 = upper0 = (lower0 + upper0) / 2;
+            if (upper1 < lower1) lower1 = upper1 = (lower1 + upper1) / 2;
+
+            trapezoids[trapezoidCount * 4] = lower0;
+            trapezoids[trapezoidCount * 4 + 1] = lower1;
+            trapezoids[trapezoidCount * 4 + 2] = upper0;
+            trapezoids[trapezoidCount * 4 + 3] = upper1;
+            trapezoidCount++;
+        }
+
+        private void addEdge(int from, int to) {
+            if (edgeCount >= edgeFrom.length) {
+                int capacity = edgeFrom.length * 2;
+                edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+                edgeTo = Arrays.copyOf(edgeTo, capacity);
+                nextOut = Arrays.copyOf(nextOut, capacity);
+                used = new boolean[capacity];
+            }
+
+            edgeFrom[edgeCount] = from;
+            edgeTo[edgeCount] = to;
+            nextOut[edgeCount] = firstOut[from];
+            firstOut[from] = edgeCount;
+            edgeCount++;
+        }
+
+        private float[] ensureStack(int count) {
+            if (count * 2 > stack.length) stack = new float[loop.length];
+            return stack;
+        }
+
+        private float[] ensurePiece(int count) {
+            if (count * 2 > piece.length) piece = new float[loop.length];
+            return piece;
+        }
+
+        private int addLoopPoint(int count, int vertex) {
+            if ((count + 1) * 2 > loop.length) loop = Arrays.copyOf(loop, loop.length * 2);
+            loop[count * 2] = vertexX[vertex];
+            loop[count * 2 + 1] = vertexY[vertex];
+            return count + 1;
+        }
     }
 
-    public static void sortByAngle(List<Vec2f> points, Vec2f anchor) {
-        points.sort((a, b) -> {
-            double angleA = Math.atan2(a.y - anchor.y, a.x - anchor.x);
-            double angleB = Math.atan2(b.y - anchor.y, b.x - anchor.x);
-            return Double.compare(angleA, angleB);
-        });
-    } // Sorts counter-clockwise from around the anchor
+    // Compacts the points in place and returns how many are left
+    public static int removeNearDuplicates(float[] points, int count, float epsilon) {
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            float x = points[i * 2], y = points[i * 2 + 1];
 
-    // Generic helpers
-    public static List<Vec2f> removeNearDuplicates(List<Vec2f> entry, float epsilon) {
-        List<Vec2f> uniqueVertices = new ArrayList<>();
-        for (Vec2f v : entry) {
             boolean exists = false;
-            for (Vec2f u : uniqueVertices) {
-                if (PolygonMath.areClose(u, v, epsilon)) {
+            for (int j = 0; j < unique; j++) {
+                if (Math.abs(points[j * 2] - x) < epsilon && Math.abs(points[j * 2 + 1] - y) < epsilon) {
                     exists = true;
                     break;
                 }
             }
-            if (!exists) uniqueVertices.add(v);
+
+            if (!exists) {
+                points[unique * 2] = x;
+                points[unique * 2 + 1] = y;
+                unique++;
+            }
         }
-        return uniqueVertices;
+        return unique;
     }
 
-    public static Vec2f computeCenter(List<Vec2f> vertices) {
-        float sumX = 0f, sumY = 0f;
-        for (Vec2f v : vertices) {
-            sumX += v.x;
-            sumY += v.y;
-        }
-        return new Vec2f(sumX / vertices.size(), sumY / vertices.size());
+
+    // Geometric Utilities
+    public static float crossProduct(float ax, float ay, float bx, float by, float cx, float cy) {
+        float
+                abx = bx - ax,
+                aby = by - ay,
+                acx = cx - ax,
+                acy = cy - ay;
+        return abx * acy - aby * acx;
+    }
+
+    // Where a, b and c are point indices into packed coordinates
+    public static float crossProduct(float[] coords, int a, int b, int c) {
+        return crossProduct(coords[a * 2], coords[a * 2 + 1], coords[b * 2], coords[b * 2 + 1], coords[c * 2], coords[c * 2 + 1]);
     }
 
-    public static <T> T getCircular(List<T> list, int index) {
-        int size = list.size();
-        return list.get((index % size + size) % size);
+    private static int compareXY(float ax, float ay, float bx, float by) {
+        int cmp = Float.compare(ax, bx);
+        if (cmp == 0) return Float.compare(ay, by);
+        return cmp;
     }
 }
@@ -0,0 +1,6 @@
+package fabric.humnyas.undershadowed.math;
+
+// Where triangulated shadows go, three x z points per triangle relative to the shadows origin
+public interface PolygonSink {
+    void addTriangleVertex(float x, float z);
+}
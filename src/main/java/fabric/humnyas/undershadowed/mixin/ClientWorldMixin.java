@@ -0,0 +1,24 @@
+package fabric.humnyas.undershadowed.mixin;
+
+import fabric.humnyas.undershadowed.core.ChunkSnapshotView;
+import fabric.humnyas.undershadowed.core.LightEmitterIndex;
+import fabric.humnyas.undershadowed.render.LightVisibilityCache;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.util.math.BlockPos;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ClientWorld.class)
+public abstract class ClientWorldMixin {
+    // Every client-side block change (server updates and local predictions) passes through here
+    @Inject(method = "updateListeners", at = @At("HEAD"))
+    private void undershadowed$onBlockChanged(BlockPos pos, BlockState oldState, BlockState newState, int flags, CallbackInfo ci) {
+        ClientWorld world = (ClientWorld) (Object) this;
+        LightEmitterIndex.onBlockChanged(world, pos, oldState, newState);
+        LightVisibilityCache.onBlockChanged(world, pos);
+        ChunkSnapshotView.invalidate(pos);
+    }
+}
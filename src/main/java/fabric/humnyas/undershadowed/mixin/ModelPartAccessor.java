@@ -0,0 +1,18 @@
+package fabric.humnyas.undershadowed.mixin;
+
+import net.minecraft.client.model.ModelPart;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+import java.util.List;
+import java.util.Map;
+
+// The cuboids and children of a part are private, but they never change once the model is baked
+@Mixin(ModelPart.class)
+public interface ModelPartAccessor {
+    @Accessor("cuboids")
+    List<ModelPart.Cuboid> undershadowed$getCuboids();
+
+    @Accessor("children")
+    Map<String, ModelPart> undershadowed$getChildren();
+}
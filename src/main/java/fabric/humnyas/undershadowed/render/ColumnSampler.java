@@ -0,0 +1,83 @@
+package fabric.humnyas.undershadowed.render;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Floor distance and light level per block column, shared by every entity in the column and thrown away at the end of
+// each tick. Only used on the client thread. Groups of flying or swimming mobs otherwise repeat the same block lookups
+// for every entity on every frame
+public class ColumnSampler {
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static class ColumnSample {
+        // Every block above floorY up to airTop is air. floorY itself is only known to be solid when floorFound is set
+        int airTop, floorY;
+        boolean floorFound;
+
+        // The last light level looked up in this column
+        int lightY, light;
+
+        ColumnSample reset() {
+            airTop = UNKNOWN;
+            lightY = UNKNOWN;
+            return this;
+        }
+    }
+
+    private static final Long2ObjectOpenHashMap<ColumnSample> COLUMNS = new Long2ObjectOpenHashMap<>();
+    private static final List<ColumnSample> POOL = new ArrayList<>(); // Samples are reused from tick to tick
+    private static int used;
+
+    // Counts the air blocks below pos, stopping at the first non-air block or after maxDepth blocks
+    public static int getAirBelow(World world, BlockPos pos, int maxDepth) {
+        ColumnSample column = getColumn(pos);
+        int top = pos.getY() - 1;
+
+        // Answered from an earlier scan when the start is inside the known air
+        if (column.airTop != UNKNOWN && top <= column.airTop && top >= column.floorY) {
+            int count = top - column.floorY;
+            if (column.floorFound || count >= maxDepth) return Math.min(count, maxDepth);
+        }
+
+        BlockPos.Mutable below = pos.mutableCopy();
+        int count = 0;
+        while (count < maxDepth && world.getBlockState(below.setY(top - count)).isAir()) count++;
+
+        column.airTop = top;
+        column.floorY = top - count;
+        column.floorFound = count < maxDepth;
+        return count;
+    }
+
+    // The combined sky and block light level at pos
+    public static int getLightLevel(World world, BlockPos pos) {
+        ColumnSample column = getColumn(pos);
+
+        if (column.lightY != pos.getY()) {
+            column.light = world.getLightLevel(pos);
+            column.lightY = pos.getY();
+        }
+        return column.light;
+    }
+
+    public static void clear() {
+        COLUMNS.clear();
+        used = 0;
+    }
+
+    private static ColumnSample getColumn(BlockPos pos) {
+        long key = (long) pos.getX() << 32 | pos.getZ() & 0xFFFFFFFFL;
+
+        ColumnSample column = COLUMNS.get(key);
+        if (column == null) {
+            if (used == POOL.size()) POOL.add(new ColumnSample());
+            column = POOL.get(used++).reset();
+            COLUMNS.put(key, column);
+        }
+        return column;
+    }
+}
@@ -1,80 +1,105 @@
 package fabric.humnyas.undershadowed.render;
 
-import net.minecraft.block.BlockState;
+import fabric.humnyas.undershadowed.core.LightEmitterIndex;
+import fabric.humnyas.undershadowed.core.LightSearch;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import net.minecraft.entity.Entity;
-import net.minecraft.util.hit.HitResult;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
-import net.minecraft.world.RaycastContext;
+import net.minecraft.world.BlockView;
 import net.minecraft.world.World;
-import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.SOURCE_BLOCK_RADIUS;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.SOURCE_REGION_SHIFT;
 
 public class LightSourceHelper {
-    public static List<Float[]> getSourceAngles(Entity entity, List<Vec3d> lightPositions) {
+    public record LightCandidate(BlockPos pos, Vec3d center, int luminance) {}
+
+    // Writes a horizontal and vertical angle pair to out for the sun and every light, returns how many pairs were written.
+    // out needs room for lightPositions.size() + 1 pairs
+    public static int getSourceAngles(Entity entity, List<Vec3d> lightPositions, float[] out) {
         Vec3d entityPos = entity.getPos();
-        List<Float[]> sources = new ArrayList<>();
+        int count = 0;
 
         // Sunlight - Pos X morning, neg X evening, nothing at night
-        Float[] sunAngles = getSunDirectionAngle(entity.getWorld());
-        if (sunAngles != null)  sources.add(sunAngles);
+        if (getSunDirectionAngle(entity.getWorld(), out, 0)) count++;
 
-        for (Vec3d lightPos : lightPositions) {
-            double dx = lightPos.x - entityPos.x,
-                    dy = lightPos.y - entityPos.y,
-                    dz = lightPos.z - entityPos.z;
+        for (int i = 0; i < lightPositions.size(); i++) {
+            Vec3d lightPos = lightPositions.get(i);
+            LightSearch.writeSourceAngle(lightPos.x - entityPos.x, lightPos.y - entityPos.y, lightPos.z - entityPos.z, out, count);
+            count++;
+        }
 
-            // Horizontal angle
-            float horAngle = (float) Math.toDegrees(Math.atan2(dz, dx)) + 90;
-            if (horAngle < 0) horAngle += 360;
+        return count;
+    }
 
-            // Vertical angle
-            double horizontalDistance = Math.sqrt(dx * dx + dz * dz);
-            float vertAngle = (float) Math.toDegrees(Math.atan2(dy, horizontalDistance));
+    // Every emitter that could light some block in the region, looked up once and shared by all entities standing in it
+    public static List<LightCandidate> getRegionCandidates(BlockView world, long regionKey) {
+        LightEmitterIndex index = LightEmitterIndex.forWorld(world);
+        return index != null ? getRegionCandidates(index, world, regionKey) : List.of();
+    }
 
-            sources.add(new Float[] { horAngle, vertAngle });
+    public static List<LightCandidate> getRegionCandidates(LightEmitterIndex index, BlockView world, long regionKey) {
+        int
+                regionSize = 1 << SOURCE_REGION_SHIFT,
+                minX = BlockPos.unpackLongX(regionKey) << SOURCE_REGION_SHIFT,
+                minY = BlockPos.unpackLongY(regionKey) << SOURCE_REGION_SHIFT,
+                minZ = BlockPos.unpackLongZ(regionKey) << SOURCE_REGION_SHIFT;
+
+        LongList emitters = new LongArrayList();
+        index.collectEmitters(
+                minX - SOURCE_BLOCK_RADIUS, minY - SOURCE_BLOCK_RADIUS, minZ - SOURCE_BLOCK_RADIUS,
+                minX + regionSize - 1 + SOURCE_BLOCK_RADIUS, minY + regionSize - 1 + SOURCE_BLOCK_RADIUS, minZ + regionSize - 1 + SOURCE_BLOCK_RADIUS,
+                emitters
+        );
+
+        List<LightCandidate> candidates = new ArrayList<>(emitters.size());
+        for (int i = 0; i < emitters.size(); i++) {
+            BlockPos pos = BlockPos.fromLong(emitters.getLong(i));
+            int luminance = world.getBlockState(pos).getLuminance();
+            if (luminance <= 0) continue;
+
+            candidates.add(new LightCandidate(pos, Vec3d.ofCenter(pos), luminance));
         }
 
-        return sources;
+        return candidates;
+    }
+
+    public static long getRegionKey(BlockPos pos) {
+        return BlockPos.asLong(pos.getX() >> SOURCE_REGION_SHIFT, pos.getY() >> SOURCE_REGION_SHIFT, pos.getZ() >> SOURCE_REGION_SHIFT);
     }
 
-    public static List<Vec3d> getNearbySourcePositions(Entity entity) {
-        World world = entity.getWorld();
-        BlockPos entityBlockPos = entity.getBlockPos();
-        Vec3d entityPosVec = entity.getPos();
-        List<Vec3d> lightPositions = new ArrayList<>();
-
-        for (int dx = -SOURCE_BLOCK_RADIUS; dx <= SOURCE_BLOCK_RADIUS; dx++) {
-            for (int dy = -SOURCE_BLOCK_RADIUS; dy <= SOURCE_BLOCK_RADIUS; dy++) {
-                for (int dz = -SOURCE_BLOCK_RADIUS; dz <= SOURCE_BLOCK_RADIUS; dz++) {
-                    BlockPos pos = entityBlockPos.add(dx, dy, dz);
-                    BlockState state = world.getBlockState(pos);
-                    int luminance = state.getLuminance();
-                    if (luminance <= 0) continue;
-
-                    Vec3d lightPos = Vec3d.ofCenter(pos);
-                    double distSq = entityPosVec.squaredDistanceTo(lightPos);
-
-                    if (luminance * luminance > distSq) {
-                        HitResult hit = world.raycast(new RaycastContext(entity.getEyePos(), lightPos, RaycastContext.ShapeType.COLLIDER, RaycastContext.FluidHandling.NONE, entity));
-                        if (hit.getType() == HitResult.Type.MISS) {
-                            lightPositions.add(lightPos);
-                        }
-                    }
-                }
-            }
+    // The per-entity part of the light search, LightSearch over the region candidates
+    public static List<Vec3d> getNearbySourcePositions(Entity entity, List<LightCandidate> candidates) {
+        IntList lights = new IntArrayList();
+        LightSearch.findLights(new WorldLightView(entity, candidates), entity.getX(), entity.getY(), entity.getZ(), entity.getEyeY(), lights);
+
+        List<Vec3d> lightPositions = new ArrayList<>(lights.size() / 3);
+        for (int i = 0; i < lights.size(); i += 3) {
+            lightPositions.add(new Vec3d(lights.getInt(i) + 0.5, lights.getInt(i + 1) + 0.5, lights.getInt(i + 2) + 0.5));
         }
 
         return lightPositions;
     }
 
-    @Nullable
-    public static Float[] getSunDirectionAngle(World world) {
-        if (world == null) return null;
+    // Whether the candidate is inside the search cube and bright enough to reach the entity
+    public static boolean isInReach(BlockPos entityBlockPos, Vec3d entityPos, LightCandidate candidate) {
+        BlockPos pos = candidate.pos();
+        return LightSearch.isInReach(
+                pos.getX() - entityBlockPos.getX(), pos.getY() - entityBlockPos.getY(), pos.getZ() - entityBlockPos.getZ(),
+                candidate.luminance(), entityPos.squaredDistanceTo(candidate.center())
+        );
+    }
+
+    // Writes the suns angle pair to out at the given pair index, returns false when the sun is down
+    public static boolean getSunDirectionAngle(World world, float[] out, int index) {
+        if (world == null) return false;
 
         // Celestial angle ranges from 0.0 (sunrise) -> 1.0 (next sunrise)
         float celestialAngle = world.getSkyAngle(1.0f); // 1.0 = full partial tick
@@ -84,8 +109,11 @@ public class LightSourceHelper {
         float horDegrees = celestialAngle < 0.5f ? -90f : 90f;
         float vertDegrees = (float) Math.toDegrees((float) Math.asin(elevation));
 
-        if (elevation <= 0f || vertDegrees < 0f) return null;
-        return new Float[]{horDegrees, vertDegrees};
+        if (elevation <= 0f || vertDegrees < 0f) return false;
+
+        out[index * 2] = horDegrees;
+        out[index * 2 + 1] = vertDegrees;
+        return true;
     }
 
 }
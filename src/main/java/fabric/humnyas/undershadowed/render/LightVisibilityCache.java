@@ -0,0 +1,247 @@
+package fabric.humnyas.undershadowed.render;
+
+import fabric.humnyas.undershadowed.core.ShadowProfiler;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.hit.HitResult;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.RaycastContext;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+// Shared between the render thread and the light workers, so every access to the maps is synchronized
+public class LightVisibilityCache {
+    // A ray only depends on the block the eye is in, the light block, and the blocks in between
+    public record RayKey(long eyePos, long lightPos) {}
+
+    private static final int MAX_ENTRIES = 8192;
+
+    // Least recently used rays are dropped first once MAX_ENTRIES is reached
+    private static final LinkedHashMap<RayKey, Boolean> RESULTS = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RayKey, Boolean> eldest) {
+            if (size() <= MAX_ENTRIES) return false;
+
+            unregister(eldest.getKey());
+            return true;
+        }
+    };
+
+    // Every cached ray whose bounding box touches a chunk section, so a block change only checks the rays near it
+    private static final Long2ObjectMap<Set<RayKey>> RAYS_BY_SECTION = new Long2ObjectOpenHashMap<>();
+
+    // The epoch of the last invalidation in every chunk section that had one. A result raced against a block change is
+    // only dropped when its ray passes through the section of the change, not every result in flight
+    private static final Long2LongMap SECTION_EPOCHS = new Long2LongOpenHashMap();
+    private static final int MAX_SECTION_EPOCHS = 16384; // A loaded chunk marks its whole column
+
+    private static World cachedWorld;
+    private static long epoch; // Bumped on every invalidation
+    private static long forgottenEpoch; // SECTION_EPOCHS was last emptied here, rays started before can't be checked anymore
+    private static long hits, misses;
+
+    // Whether the light can be seen from eyePos, raycasting only when the result isn't cached. The entity gives the
+    // raycast its collision context
+    public static boolean isVisible(Entity entity, Vec3d eyePos, BlockPos lightPos, Vec3d lightCenter) {
+        World world = entity.getWorld();
+        RayKey key = getKey(eyePos, lightPos);
+
+        Boolean cached = get(world, key);
+        if (cached != null) return cached;
+
+        long startEpoch = getEpoch();
+        long start = ShadowProfiler.start();
+        HitResult hit = world.raycast(new RaycastContext(eyePos, lightCenter, RaycastContext.ShapeType.COLLIDER, RaycastContext.FluidHandling.NONE, entity));
+        boolean visible = hit.getType() == HitResult.Type.MISS;
+        ShadowProfiler.end(ShadowProfiler.Stage.RAYCAST, start);
+
+        put(key, visible, startEpoch);
+        return visible;
+    }
+
+    public static RayKey getKey(Vec3d eyePos, BlockPos lightPos) {
+        return new RayKey(BlockPos.asLong(
+                (int) Math.floor(eyePos.x),
+                (int) Math.floor(eyePos.y),
+                (int) Math.floor(eyePos.z)
+        ), lightPos.asLong());
+    }
+
+    @Nullable
+    public static synchronized Boolean get(World world, RayKey key) {
+        if (world != cachedWorld) {
+            clear();
+            cachedWorld = world;
+        }
+
+        Boolean cached = RESULTS.get(key);
+        if (cached != null) hits++;
+        else misses++;
+
+        return cached;
+    }
+
+    // Stores a raycast result, unless something near the ray was invalidated since it was started
+    public static synchronized void put(RayKey key, boolean visible, long startEpoch) {
+        if (startEpoch < forgottenEpoch || isChangedSince(key, startEpoch)) return;
+
+        RESULTS.put(key, visible);
+        register(key);
+    }
+
+    // Drops every ray that passes near the changed block
+    public static synchronized void onBlockChanged(World world, BlockPos pos) {
+        if (world != cachedWorld) return;
+
+        long sectionKey = ChunkSectionPos.toLong(pos);
+        markChanged(sectionKey);
+
+        Set<RayKey> rays = RAYS_BY_SECTION.get(sectionKey);
+        if (rays == null) return;
+
+        List<RayKey> invalidated = new ArrayList<>();
+        for (RayKey key : rays) {
+            if (boundsContain(key, pos.getX(), pos.getY(), pos.getZ())) invalidated.add(key);
+        }
+
+        for (RayKey key : invalidated) {
+            RESULTS.remove(key);
+            unregister(key);
+        }
+    }
+
+    // A chunk the client loads or unloads changes every block of its column, so every ray through it is dropped. Rays
+    // over a chunk that wasn't loaded yet saw only air
+    public static synchronized void onChunkChanged(ClientWorld world, WorldChunk chunk) {
+        if (world != cachedWorld) return;
+
+        ChunkPos chunkPos = chunk.getPos();
+        for (int i = 0; i < chunk.countVerticalSections(); i++) {
+            long sectionKey = ChunkSectionPos.asLong(chunkPos.x, chunk.sectionIndexToCoord(i), chunkPos.z);
+            markChanged(sectionKey);
+
+            Set<RayKey> rays = RAYS_BY_SECTION.get(sectionKey);
+            if (rays == null) continue;
+
+            for (RayKey key : new ArrayList<>(rays)) {
+                RESULTS.remove(key);
+                unregister(key);
+            }
+        }
+    }
+
+    public static synchronized void clear() {
+        RESULTS.clear();
+        RAYS_BY_SECTION.clear();
+        SECTION_EPOCHS.clear();
+        forgottenEpoch = ++epoch;
+    }
+
+    public static synchronized long getEpoch() {
+        return epoch;
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    public static synchronized int size() {
+        return RESULTS.size();
+    }
+
+    private static void register(RayKey key) {
+        forEachSection(key, sectionKey -> {
+            Set<RayKey> rays = RAYS_BY_SECTION.get(sectionKey);
+            if (rays == null) {
+                rays = new HashSet<>();
+                RAYS_BY_SECTION.put(sectionKey, rays);
+            }
+            rays.add(key);
+        });
+    }
+
+    private static void unregister(RayKey key) {
+        forEachSection(key, sectionKey -> {
+            Set<RayKey> rays = RAYS_BY_SECTION.get(sectionKey);
+            if (rays == null) return;
+
+            rays.remove(key);
+            if (rays.isEmpty()) RAYS_BY_SECTION.remove(sectionKey);
+        });
+    }
+
+    private static void markChanged(long sectionKey) {
+        if (SECTION_EPOCHS.size() >= MAX_SECTION_EPOCHS) {
+            SECTION_EPOCHS.clear();
+            forgottenEpoch = epoch;
+        }
+        SECTION_EPOCHS.put(sectionKey, ++epoch);
+    }
+
+    private static boolean isChangedSince(RayKey key, long startEpoch) {
+        return anySection(key, sectionKey -> SECTION_EPOCHS.get(sectionKey) > startEpoch);
+    }
+
+    private static void forEachSection(RayKey key, LongConsumer action) {
+        anySection(key, sectionKey -> {
+            action.accept(sectionKey);
+            return false;
+        });
+    }
+
+    // Whether the test holds for any chunk section the rays bounding box touches, stops at the first one
+    private static boolean anySection(RayKey key, LongPredicate test) {
+        int
+                minX = ChunkSectionPos.getSectionCoord(minBound(key, 0)), maxX = ChunkSectionPos.getSectionCoord(maxBound(key, 0)),
+                minY = ChunkSectionPos.getSectionCoord(minBound(key, 1)), maxY = ChunkSectionPos.getSectionCoord(maxBound(key, 1)),
+                minZ = ChunkSectionPos.getSectionCoord(minBound(key, 2)), maxZ = ChunkSectionPos.getSectionCoord(maxBound(key, 2));
+
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    if (test.test(ChunkSectionPos.asLong(x, y, z))) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean boundsContain(RayKey key, int x, int y, int z) {
+        return x >= minBound(key, 0) && x <= maxBound(key, 0)
+                && y >= minBound(key, 1) && y <= maxBound(key, 1)
+                && z >= minBound(key, 2) && z <= maxBound(key, 2);
+    }
+
+    // The box spanned by both blocks, grown by one so taller collision shapes (fences, walls) next to the ray still count
+    public static int minBound(RayKey key, int axis) {
+        return Math.min(coordinate(key.eyePos(), axis), coordinate(key.lightPos(), axis)) - 1;
+    }
+
+    public static int maxBound(RayKey key, int axis) {
+        return Math.max(coordinate(key.eyePos(), axis), coordinate(key.lightPos(), axis)) + 1;
+    }
+
+    private static int coordinate(long pos, int axis) {
+        return switch (axis) {
+            case 0 -> BlockPos.unpackLongX(pos);
+            case 1 -> BlockPos.unpackLongY(pos);
+            default -> BlockPos.unpackLongZ(pos);
+        };
+    }
+}
@@ -0,0 +1,66 @@
+package fabric.humnyas.undershadowed.render;
+
+import fabric.humnyas.undershadowed.Undershadowed;
+import fabric.humnyas.undershadowed.core.EntityShadowState;
+import net.minecraft.client.render.Frustum;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+// Drops entities whose shadow can't be on screen, before any light or geometry work is done for them
+public class ShadowCuller {
+    private static final float[] SUN_ANGLE = new float[2];
+    private static final double MOTION_MARGIN = 0.5; // The box is from the last tick, the shadow is drawn interpolated
+
+    private static int lastCulled;
+    private static long totalCulled;
+
+    // Removes every entity that is culled from the list
+    public static void cull(World world, List<Entity> entities, @Nullable Frustum frustum) {
+        lastCulled = 0;
+        if (frustum == null) return;
+
+        boolean sunUp = LightSourceHelper.getSunDirectionAngle(world, SUN_ANGLE, 0);
+        int kept = 0;
+
+        for (int i = 0; i < entities.size(); i++) {
+            Entity entity = entities.get(i);
+            double reach = getMaxShadowLength(entity, sunUp) + MOTION_MARGIN;
+
+            if (frustum.isVisible(entity.getBoundingBox().expand(reach, MOTION_MARGIN, reach))) {
+                entities.set(kept++, entity);
+            }
+        }
+
+        lastCulled = entities.size() - kept;
+        entities.subList(kept, entities.size()).clear();
+
+        if (lastCulled > 0) {
+            totalCulled += lastCulled;
+            Undershadowed.LOGGER.debug("Culled {} entity shadows", lastCulled);
+        }
+    }
+
+    // How far the shadow can reach sideways from the entity. Shadows are as long as the entity is tall, and there is no
+    // shadow without a light. Entities whose lights haven't been looked up yet count as lit
+    private static double getMaxShadowLength(Entity entity, boolean sunUp) {
+        EntityShadowState state = EntityShadowState.peek(entity);
+        if (state == null) return entity.getHeight();
+
+        List<Vec3d> sources = state.sourcePositions;
+        if (!sunUp && sources != null && sources.isEmpty()) return 0;
+
+        return Float.isNaN(state.baseShadowHeight) ? entity.getHeight() : Math.max(state.baseShadowHeight, entity.getHeight());
+    }
+
+    public static int getLastCulled() {
+        return lastCulled;
+    }
+
+    public static long getTotalCulled() {
+        return totalCulled;
+    }
+}
@@ -0,0 +1,73 @@
+package fabric.humnyas.undershadowed.render;
+
+import com.mojang.brigadier.CommandDispatcher;
+import fabric.humnyas.undershadowed.Undershadowed;
+import fabric.humnyas.undershadowed.core.ShadowProfiler;
+import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.font.TextRenderer;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.text.Text;
+import net.minecraft.util.Util;
+
+import java.util.List;
+
+import static net.fabricmc.fabric.api.client.command.v2.ClientCommandManager.literal;
+
+// Shows the profiler in the top right corner, styled like the F3 screen, and adds /undershadowed profiler to turn it
+// on, off, reset it or dump the percentiles to chat
+public class ShadowDebugOverlay {
+    private static final long REFRESH_MILLIS = 250; // The report is only rebuilt a few times a second
+
+    private static List<String> lines = List.of();
+    private static long lastRefresh;
+
+    public static void render(DrawContext context, float tickDelta) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (!ShadowProfiler.isEnabled() || client.options.debugEnabled || client.options.hudHidden) return;
+
+        long now = Util.getMeasuringTimeMs();
+        if (now - lastRefresh > REFRESH_MILLIS) {
+            lines = ShadowProfiler.getReport();
+            lastRefresh = now;
+        }
+
+        TextRenderer textRenderer = client.textRenderer;
+        int right = context.getScaledWindowWidth() - 2, y = 2;
+
+        for (String line : lines) {
+            int width = textRenderer.getWidth(line);
+            context.fill(right - width - 1, y - 1, right + 1, y + textRenderer.fontHeight - 1, 0x90505050);
+            context.drawText(textRenderer, line, right - width, y, 0xE0E0E0, false);
+            y += textRenderer.fontHeight;
+        }
+    }
+
+    public static void registerCommand(CommandDispatcher<FabricClientCommandSource> dispatcher) {
+        dispatcher.register(literal(Undershadowed.MOD_ID).then(literal("profiler")
+                .executes(context -> {
+                    List<String> report = ShadowProfiler.getReport();
+                    for (String line : report) {
+                        context.getSource().sendFeedback(Text.literal(line));
+                        Undershadowed.LOGGER.info(line);
+                    }
+                    return report.size();
+                })
+                .then(literal("on").executes(context -> {
+                    ShadowProfiler.setEnabled(true);
+                    context.getSource().sendFeedback(Text.literal("Shadow profiler on"));
+                    return 1;
+                }))
+                .then(literal("off").executes(context -> {
+                    ShadowProfiler.setEnabled(false);
+                    context.getSource().sendFeedback(Text.literal("Shadow profiler off"));
+                    return 1;
+                }))
+                .then(literal("reset").executes(context -> {
+                    ShadowProfiler.reset();
+                    context.getSource().sendFeedback(Text.literal("Shadow profiler reset"));
+                    return 1;
+                }))
+        ));
+    }
+}
@@ -1,33 +1,50 @@
 package fabric.humnyas.undershadowed.render;
 
 import com.mojang.blaze3d.systems.RenderSystem;
-import fabric.humnyas.undershadowed.math.PolygonMath;
-import net.minecraft.client.MinecraftClient;
+import fabric.humnyas.undershadowed.core.ShadowJob;
+import fabric.humnyas.undershadowed.core.ShadowProfiler;
 import net.minecraft.client.render.*;
 import net.minecraft.client.util.math.MatrixStack;
-import net.minecraft.entity.Entity;
-import net.minecraft.util.math.Vec2f;
 import net.minecraft.util.math.Vec3d;
 import org.joml.Matrix4f;
 import org.lwjgl.opengl.GL11;
 
-import java.util.List;
+import java.util.Arrays;
 
+// Shadows are only queued while the entities are processed, flush then draws all of them with a single draw call
 public class ShadowRenderer {
-    public static void renderShadow (
-            MatrixStack matrices, Entity entity,
-            float tickDelta, List<List<Vec2f>> verticesList, float opacity
-    ) {
-        if (verticesList == null || verticesList.isEmpty()) return;
+    private static final int VERTEX_STRIDE = 4; // x y z relative to the camera, then alpha
 
-        Vec3d
-                camPos = MinecraftClient.getInstance().gameRenderer.getCamera().getPos(),
-                pos = entity.getLerpedPos(tickDelta);
+    private static float[] vertexStream = new float[VERTEX_STRIDE * 3 * 256];
+    private static int vertexCount;
+
+    // Queues the triangles of a built job, relative to the camera of the frame it is drawn in
+    public static void addShadow(ShadowJob job, Vec3d cameraPos) {
+        if (job.triangleVertexCount == 0) return;
+
+        double
+                offsetX = job.originX - cameraPos.getX(),
+                offsetY = job.originY - cameraPos.getY(),
+                offsetZ = job.originZ - cameraPos.getZ();
+
+        ensureVertices(vertexCount + job.triangleVertexCount);
+        for (int i = 0; i < job.triangleVertexCount; i++) {
+            addVertex(job.triangles[i * 2], job.triangles[i * 2 + 1], offsetX, offsetY, offsetZ, job.opacity);
+        }
+    }
+
+    public static int getQueuedVertexCount() {
+        return vertexCount;
+    }
+
+    // Draws every shadow queued this frame, called once after all entities are done
+    public static void flush(MatrixStack matrices) {
+        if (vertexCount == 0) return;
+        long start = ShadowProfiler.start();
 
-        MatrixStack.Entry matrixEntry = matrices.peek();
         Tessellator tessellator = Tessellator.getInstance();
         BufferBuilder buffer = tessellator.getBuffer();
-        Matrix4f matrix = matrixEntry.getPositionMatrix();
+        Matrix4f matrix = matrices.peek().getPositionMatrix();
 
         RenderSystem.enableBlend();
         RenderSystem.defaultBlendFunc();
@@ -37,29 +54,34 @@ public class ShadowRenderer {
 
         buffer.begin(VertexFormat.DrawMode.TRIANGLES, VertexFormats.POSITION_COLOR);
 
-        for (List<Vec2f> polygon : verticesList) {
-            List<List<Vec2f>> triangles = PolygonMath.earClipPolygon(polygon);
-            for (List<Vec2f> tri : triangles) {
-                addVertex(buffer, matrix, tri.get(0), pos, camPos, opacity);
-                addVertex(buffer, matrix, tri.get(1), pos, camPos, opacity);
-                addVertex(buffer, matrix, tri.get(2), pos, camPos, opacity);
-            }
+        for (int i = 0; i < vertexCount * VERTEX_STRIDE; i += VERTEX_STRIDE) {
+            buffer.vertex(matrix, vertexStream[i], vertexStream[i + 1], vertexStream[i + 2])
+                    .color(0f, 0f, 0f, vertexStream[i + 3]) // Black shadow
+                    .next();
         }
         tessellator.draw();
 
         RenderSystem.enableCull();
         RenderSystem.disableBlend();
         RenderSystem.depthFunc(GL11.GL_LESS);
+
+        vertexCount = 0;
+        ShadowProfiler.end(ShadowProfiler.Stage.DRAW, start);
     }
 
-    private static void addVertex(BufferBuilder buffer, Matrix4f matrix, Vec2f point, Vec3d entityPos, Vec3d camPos, float opacity) {
-        float x = (float) (point.x + entityPos.getX() - camPos.getX());
-        float y = (float) (entityPos.getY() - camPos.getY() + 0.01); // Offset slightly to prevent z-fighting
-        float z = (float) (point.y + entityPos.getZ() - camPos.getZ());
+    private static void addVertex(float pointX, float pointY, double offsetX, double offsetY, double offsetZ, float opacity) {
+        int index = vertexCount * VERTEX_STRIDE;
 
-        buffer.vertex(matrix, x, y, z)
-                .color(0f, 0f, 0f, opacity) // Black shadow
-                .next();
+        vertexStream[index] = (float) (pointX + offsetX);
+        vertexStream[index + 1] = (float) offsetY;
+        vertexStream[index + 2] = (float) (pointY + offsetZ);
+        vertexStream[index + 3] = opacity;
+        vertexCount++;
     }
 
+    private static void ensureVertices(int count) {
+        if (count * VERTEX_STRIDE > vertexStream.length) {
+            vertexStream = Arrays.copyOf(vertexStream, Math.max(count * VERTEX_STRIDE, vertexStream.length * 2));
+        }
+    }
 }
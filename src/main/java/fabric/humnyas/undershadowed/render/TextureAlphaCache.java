@@ -0,0 +1,189 @@
+package fabric.humnyas.undershadowed.render;
+import static fabric.humnyas.undershadowed.core.ShadowDataRegistry.*;
+
+import com.google.common.hash.Hashing;
+import fabric.humnyas.undershadowed.Undershadowed;
+import fabric.humnyas.undershadowed.core.ShadowEvents.TextureAlphaEvent;
+import net.fabricmc.fabric.api.resource.SimpleResourceReloadListener;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.resource.Resource;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.Util;
+import net.minecraft.util.profiler.Profiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// Average alpha of the entity textures, so see-through entities cast lighter shadows. Everything under textures/entity
+// is measured on the reload executor while resources reload, and remembered on disk by resource pack and content hash
+// so the next launch only has to hash the files. Other textures are measured on a worker the first time they are
+// seen. Until a value is ready the neutral alpha is used
+public class TextureAlphaCache implements SimpleResourceReloadListener<Map<Identifier, Float>> {
+    private static final Identifier ID = new Identifier(Undershadowed.MOD_ID, "texture_alpha");
+    private static final Path CACHE_PATH = FabricLoader.getInstance().getGameDir().resolve(".cache").resolve(Undershadowed.MOD_ID).resolve("texture_alpha.properties");
+
+    private static final float NEUTRAL_ALPHA = 1.0f;
+    private static final Float PENDING = Float.NaN; // Marks textures that are being measured
+
+    private static volatile int generation; // Bumped on every reload, so results measured from the old resources are dropped
+
+    public static float getAlpha(ResourceManager resourceManager, Identifier texture) {
+        Float alpha = ALPHA_CACHE.get(texture);
+
+        if (alpha == null) {
+            if (ALPHA_CACHE.putIfAbsent(texture, PENDING) == null) measureLater(resourceManager, texture);
+            return NEUTRAL_ALPHA;
+        }
+        return alpha.isNaN() ? NEUTRAL_ALPHA : alpha;
+    }
+
+    private static void measureLater(ResourceManager resourceManager, Identifier texture) {
+        int startGeneration = generation;
+
+        Util.getMainWorkerExecutor().execute(() -> {
+            float alpha = NEUTRAL_ALPHA;
+            Resource resource = resourceManager.getResource(texture).orElse(null);
+
+            if (resource != null) {
+                TextureAlphaEvent event = new TextureAlphaEvent();
+                event.begin();
+                try {
+                    byte[] bytes = readBytes(resource);
+                    alpha = measure(bytes, event);
+                    event.bytes = bytes.length;
+                } catch (IOException e) {
+                    Undershadowed.LOGGER.debug("Failed to read {}", texture, e);
+                }
+                commit(event, texture, resource, false);
+            }
+
+            if (generation == startGeneration) ALPHA_CACHE.replace(texture, PENDING, alpha);
+        });
+    }
+
+    @Override
+    public Identifier getFabricId() {
+        return ID;
+    }
+
+    @Override
+    public CompletableFuture<Map<Identifier, Float>> load(ResourceManager manager, Profiler profiler, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            Properties stored = readDiskCache(), updated = new Properties();
+            Map<Identifier, Float> alphas = new HashMap<>();
+
+            manager.findResources("textures/entity", id -> id.getPath().endsWith(".png")).forEach((id, resource) -> {
+                TextureAlphaEvent event = new TextureAlphaEvent();
+                event.begin();
+                try {
+                    byte[] bytes = readBytes(resource);
+                    String key = resource.getResourcePackName() + "/" + Hashing.murmur3_128().hashBytes(bytes);
+                    event.bytes = bytes.length;
+
+                    float alpha = parseAlpha(stored.getProperty(key));
+                    event.cached = !Float.isNaN(alpha);
+                    if (!event.cached) alpha = measure(bytes, event); // Only decoded when the file is new or changed
+
+                    alphas.put(id, alpha);
+                    updated.setProperty(key, Float.toString(alpha));
+                } catch (IOException e) {
+                    Undershadowed.LOGGER.debug("Failed to read {}", id, e);
+                }
+                commit(event, id, resource, event.cached);
+            });
+
+            // Rewritten from scratch, so textures that are gone don't pile up
+            if (!updated.equals(stored)) writeDiskCache(updated);
+            return alphas;
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> apply(Map<Identifier, Float> alphas, ResourceManager manager, Profiler profiler, Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            generation++;
+            ALPHA_CACHE.clear();
+            ALPHA_CACHE.putAll(alphas);
+        }, executor);
+    }
+
+    private static byte[] readBytes(Resource resource) throws IOException {
+        try (InputStream stream = resource.getInputStream()) {
+            return stream.readAllBytes();
+        }
+    }
+
+    private static void commit(TextureAlphaEvent event, Identifier texture, Resource resource, boolean cached) {
+        event.end();
+        if (!event.shouldCommit()) return;
+
+        event.texture = texture.toString();
+        event.resourcePack = resource.getResourcePackName();
+        event.cached = cached;
+        event.commit();
+    }
+
+    // Averages the alpha of every pixel, between 0 and 1. Also records the image size in the event
+    private static float measure(byte[] png, TextureAlphaEvent event) {
+        try (NativeImage image = NativeImage.read(NativeImage.Format.RGBA, new ByteArrayInputStream(png))) {
+            event.width = image.getWidth();
+            event.height = image.getHeight();
+            long alpha = 0;
+
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    alpha += image.getOpacity(x, y) & 0xFF; // The opacity is a signed byte
+                }
+            }
+
+            return alpha / (255f * image.getWidth() * image.getHeight());
+        } catch (IOException e) {
+            return NEUTRAL_ALPHA;
+        }
+    }
+
+    private static float parseAlpha(String value) {
+        if (value == null) return Float.NaN;
+
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    private static Properties readDiskCache() {
+        Properties properties = new Properties();
+        if (!Files.exists(CACHE_PATH)) return properties;
+
+        try (Reader reader = Files.newBufferedReader(CACHE_PATH)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            Undershadowed.LOGGER.warn("Failed to read {}, measuring every texture again", CACHE_PATH, e);
+        }
+        return properties;
+    }
+
+    private static void writeDiskCache(Properties properties) {
+        try {
+            Files.createDirectories(CACHE_PATH.getParent());
+            try (Writer writer = Files.newBufferedWriter(CACHE_PATH)) {
+                properties.store(writer, "Undershadowed texture alpha, keyed by resource pack and content hash");
+            }
+        } catch (IOException e) {
+            Undershadowed.LOGGER.warn("Failed to write {}", CACHE_PATH, e);
+        }
+    }
+}
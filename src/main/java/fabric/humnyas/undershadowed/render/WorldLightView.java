@@ -0,0 +1,42 @@
+package fabric.humnyas.undershadowed.render;
+
+import fabric.humnyas.undershadowed.core.LightView;
+import fabric.humnyas.undershadowed.render.LightSourceHelper.LightCandidate;
+import it.unimi.dsi.fastutil.ints.IntList;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.List;
+
+// The client world as the light search sees it from one entity. Emitters come from the candidates of its region (found
+// through LightEmitterIndex), visibility from LightVisibilityCache
+public class WorldLightView implements LightView {
+    private final Entity viewer;
+    private final List<LightCandidate> candidates;
+
+    public WorldLightView(Entity viewer, List<LightCandidate> candidates) {
+        this.viewer = viewer;
+        this.candidates = candidates;
+    }
+
+    // The region candidates already cover the search cube of every entity in the region, so filtering them is enough
+    @Override
+    public void collectEmitters(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, IntList out) {
+        for (LightCandidate candidate : candidates) {
+            BlockPos pos = candidate.pos();
+            if (pos.getX() < minX || pos.getX() > maxX || pos.getY() < minY || pos.getY() > maxY || pos.getZ() < minZ || pos.getZ() > maxZ) continue;
+
+            out.add(pos.getX());
+            out.add(pos.getY());
+            out.add(pos.getZ());
+            out.add(candidate.luminance());
+        }
+    }
+
+    @Override
+    public boolean isVisible(double eyeX, double eyeY, double eyeZ, int lightX, int lightY, int lightZ) {
+        BlockPos lightPos = new BlockPos(lightX, lightY, lightZ);
+        return LightVisibilityCache.isVisible(viewer, new Vec3d(eyeX, eyeY, eyeZ), lightPos, Vec3d.ofCenter(lightPos));
+    }
+}
@@ -0,0 +1,225 @@
+package fabric.humnyas.undershadowed.math;
+
+import net.minecraft.util.math.Vec2f;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The packed polygon functions against the list based reference in Vec2fPolygonMath
+class PolygonMathTest {
+    private static final float AREA_EPSILON = 1e-5f;
+
+    @Test
+    void convexHullMatchesReferenceOnRandomPoints() {
+        Random random = new Random(1);
+
+        for (int round = 0; round < 2000; round++) {
+            float[] points = new float[(3 + random.nextInt(40)) * 2];
+            for (int i = 0; i < points.length; i++) points[i] = random.nextFloat() * 2 - 1;
+
+            float[] hull = packedHull(points);
+            List<Vec2f> reference = Vec2fPolygonMath.convexHull(toList(points));
+
+            // The reference returns three points as they came, in either winding
+            assertEquals(reference.size(), hull.length / 2, "hull size");
+            assertTrue(containsAll(reference, hull), "hull points");
+            assertEquals(Math.abs(area(reference)), area(hull), AREA_EPSILON);
+        }
+    }
+
+    // Points on a line, repeated points and points a rounding error apart. The reference can lose a corner when several
+    // points sit at the same angle from its anchor, so the packed hull has to hold every point and at least its area
+    @Test
+    void convexHullHandlesDegeneratePoints() {
+        Random random = new Random(2);
+
+        for (int round = 0; round < 2000; round++) {
+            float[] points = degeneratePoints(random);
+            float[] hull = packedHull(points);
+            int size = hull.length / 2;
+
+            assertTrue(area(hull) >= Math.abs(area(Vec2fPolygonMath.convexHull(toList(points)))) - AREA_EPSILON, "hull area");
+            if (size < 3) continue;
+
+            for (int i = 0; i < size; i++) {
+                int next = (i + 1) % size;
+                for (int j = 0; j < points.length / 2; j++) {
+                    float cross = PolygonMath.crossProduct(hull[i * 2], hull[i * 2 + 1], hull[next * 2], hull[next * 2 + 1], points[j * 2], points[j * 2 + 1]);
+                    assertTrue(cross >= -AREA_EPSILON, "point outside the hull");
+                }
+            }
+        }
+    }
+
+    @Test
+    void removeNearDuplicatesMatchesReference() {
+        Random random = new Random(3);
+
+        for (int round = 0; round < 2000; round++) {
+            float[] points = round % 2 == 0 ? degeneratePoints(random) : randomGrid(random);
+            List<Vec2f> reference = Vec2fPolygonMath.removeNearDuplicates(toList(points), 1e-3f);
+
+            float[] packed = points.clone();
+            int count = PolygonMath.removeNearDuplicates(packed, points.length / 2, 1e-3f);
+
+            assertEquals(reference.size(), count, "unique points");
+            for (int i = 0; i < count; i++) {
+                assertEquals(reference.get(i).x, packed[i * 2]);
+                assertEquals(reference.get(i).y, packed[i * 2 + 1]);
+            }
+        }
+    }
+
+    @Test
+    void triangulateMatchesReferenceOnStarPolygons() {
+        Random random = new Random(4);
+
+        for (int round = 0; round < 2000; round++) {
+            float[] polygon = starPolygon(random, 4 + random.nextInt(30));
+            float polygonArea = area(polygon);
+
+            assertEquals(polygonArea, triangleArea(Vec2fPolygonMath.earClipPolygon(toList(polygon))), AREA_EPSILON);
+            assertTriangulation(polygon);
+        }
+    }
+
+    // Straight points on the edges and the same point twice in a row, both show up in the outlines of the union
+    @Test
+    void triangulateHandlesStraightAndRepeatedPoints() {
+        Random random = new Random(5);
+
+        for (int round = 0; round < 2000; round++) {
+            float[] star = starPolygon(random, 4 + random.nextInt(20));
+            PolygonBuffer polygon = new PolygonBuffer();
+            for (int i = 0; i < star.length / 2; i++) {
+                int next = (i + 1) % (star.length / 2);
+                polygon.addPoint(star[i * 2], star[i * 2 + 1]);
+
+                switch (random.nextInt(4)) {
+                    case 0 -> polygon.addPoint((star[i * 2] + star[next * 2]) / 2, (star[i * 2 + 1] + star[next * 2 + 1]) / 2);
+                    case 1 -> polygon.addPoint(star[i * 2], star[i * 2 + 1]);
+                    default -> {}
+                }
+            }
+
+            assertTriangulation(Arrays.copyOf(polygon.getCoords(), polygon.getPointCount() * 2));
+        }
+    }
+
+    // Every triangle keeps the winding of the polygon and together they cover exactly its area, so none overlap
+    static void assertTriangulation(float[] polygon) {
+        int count = polygon.length / 2;
+        int[] triangles = new int[Math.max(0, count - 2) * 3], scratch = new int[count * 3];
+        int written = PolygonMath.triangulate(polygon, 0, count, triangles, scratch);
+
+        float polygonArea = area(polygon), sign = Math.signum(polygonArea), total = 0;
+        for (int i = 0; i < written; i += 3) {
+            float triangle = PolygonMath.crossProduct(polygon, triangles[i], triangles[i + 1], triangles[i + 2]) / 2;
+            assertTrue(triangle * sign >= -AREA_EPSILON, "triangle is inverted");
+            total += Math.abs(triangle);
+        }
+        assertEquals(Math.abs(polygonArea), total, AREA_EPSILON * Math.max(1, count));
+    }
+
+    private static float[] packedHull(float[] points) {
+        float[] hull = new float[points.length + 2];
+        int size = PolygonMath.convexHull(points.clone(), points.length / 2, hull);
+        return Arrays.copyOf(hull, size * 2);
+    }
+
+    // Counter-clockwise, every point at its own angle around the middle. Each gets a slice of the circle so the middle
+    // stays inside and the edges can't cross
+    static float[] starPolygon(Random random, int count) {
+        float[] polygon = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            double angle = (i + random.nextFloat() * 0.9) * Math.PI * 2 / count;
+            float radius = 0.2f + random.nextFloat();
+            polygon[i * 2] = (float) Math.cos(angle) * radius;
+            polygon[i * 2 + 1] = (float) Math.sin(angle) * radius;
+        }
+        return polygon;
+    }
+
+    private static float[] degeneratePoints(Random random) {
+        int count = 3 + random.nextInt(20);
+        float[] points = new float[count * 2];
+        float
+                dx = random.nextFloat() * 2 - 1,
+                dy = random.nextFloat() * 2 - 1;
+
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(4)) {
+                case 0 -> { // On one line
+                    float t = random.nextInt(8) / 4f;
+                    points[i * 2] = dx * t;
+                    points[i * 2 + 1] = dy * t;
+                }
+                case 1 -> { // Same as an earlier point
+                    int other = random.nextInt(i + 1);
+                    points[i * 2] = points[other * 2];
+                    points[i * 2 + 1] = points[other * 2 + 1];
+                }
+                case 2 -> { // Next to an earlier point
+                    int other = random.nextInt(i + 1);
+                    points[i * 2] = points[other * 2] + 1e-4f;
+                    points[i * 2 + 1] = points[other * 2 + 1] - 1e-4f;
+                }
+                default -> {
+                    points[i * 2] = random.nextInt(5) / 4f;
+                    points[i * 2 + 1] = random.nextInt(5) / 4f;
+                }
+            }
+        }
+        return points;
+    }
+
+    private static float[] randomGrid(Random random) {
+        float[] points = new float[(3 + random.nextInt(30)) * 2];
+        for (int i = 0; i < points.length; i++) points[i] = random.nextInt(8) / 16f + (random.nextBoolean() ? 5e-4f : 0);
+        return points;
+    }
+
+    private static List<Vec2f> toList(float[] points) {
+        List<Vec2f> list = new ArrayList<>();
+        for (int i = 0; i < points.length / 2; i++) list.add(new Vec2f(points[i * 2], points[i * 2 + 1]));
+        return list;
+    }
+
+    private static boolean containsAll(List<Vec2f> reference, float[] hull) {
+        for (int i = 0; i < hull.length / 2; i++) {
+            float x = hull[i * 2], y = hull[i * 2 + 1];
+            if (reference.stream().noneMatch(point -> point.x == x && point.y == y)) return false;
+        }
+        return true;
+    }
+
+    static float area(float[] polygon) {
+        int count = polygon.length / 2;
+        float area = 0;
+        for (int i = 0; i < count; i++) {
+            int next = (i + 1) % count;
+            area += polygon[i * 2] * polygon[next * 2 + 1] - polygon[next * 2] * polygon[i * 2 + 1];
+        }
+        return area / 2;
+    }
+
+    private static float area(List<Vec2f> polygon) {
+        float[] packed = new float[polygon.size() * 2];
+        for (int i = 0; i < polygon.size(); i++) {
+            packed[i * 2] = polygon.get(i).x;
+            packed[i * 2 + 1] = polygon.get(i).y;
+        }
+        return area(packed);
+    }
+
+    private static float triangleArea(List<List<Vec2f>> triangles) {
+        float total = 0;
+        for (List<Vec2f> triangle : triangles) total += area(triangle);
+        return total;
+    }
+}
@@ -0,0 +1,180 @@
+package fabric.humnyas.undershadowed.math;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// unionConvex on overlapping rotated boxes, the way bone hulls overlap in a shadow
+class PolygonUnionTest {
+    // Some of these used to come out as spikes or with vertices on a diagonal, and were ear clipped into overlapping
+    // or inverted triangles
+    @Test
+    void unionOfRotatedBoxesTriangulatesWithoutOverlap() {
+        Random random = new Random(1);
+        PolygonBuffer boxes = new PolygonBuffer(), union = new PolygonBuffer();
+        PolygonMath.UnionScratch scratch = new PolygonMath.UnionScratch();
+
+        for (int round = 0; round < 50000; round++) {
+            addRotatedBoxes(random, boxes);
+            PolygonMath.unionConvex(boxes, union, scratch);
+
+            for (int i = 0; i < union.getPolygonCount(); i++) {
+                float[] outline = getPolygon(union, i);
+                assertNoSpikes(outline);
+                PolygonMathTest.assertTriangulation(outline);
+            }
+        }
+    }
+
+    // Bone hulls whose outline touches itself in a corner, hulls whose outline nearly does (two vertices on a boundary just
+    // further apart than they get merged), hulls joined by a neck narrower than a spike, and a hull edge so steep that the
+    // traced outline zigzags across it. All of them used to be triangulated into triangles outside of the outline
+    @Test
+    void pinchedOutlinesTriangulateWithoutOverlap() {
+        float[][][] cases = {
+                {
+                        {-0.4375f, -0.86166203f, -0.2744635f, -0.8640458f, -0.28205404f, -0.4375f, -0.4274957f, -0.65144646f},
+                        {-0.35238492f, -0.42922378f, -0.2668032f, -0.43940616f, 0.008821756f, -0.24532117f, -0.056611836f, -0.025071114f, -0.084571674f, 0.060611144f, -0.19595727f, 0.026084334f},
+                        {-0.093136676f, -0.24324363f, -0.07115904f, -0.39968503f, 0.16888413f, -0.2289535f, 0.15800594f, -0.14488669f, 0.10638413f, -0.0058131665f, 0.07278529f, 0.074804544f, -0.021374349f, -0.09668097f}
+                },
+                {
+                        {-0.27684087f, -0.03453806f, -0.046287417f, -0.0824015f, 0.09832141f, 0.015209515f, 0.16082141f, 0.15296194f, -0.15167859f, 0.18961115f},
+                        {0.16132484f, 0.5302119f, 0.3235295f, 0.53017306f, 0.33110094f, 0.7510539f, 0.19871992f, 0.74447674f},
+                        {0.16029607f, 0.35625064f, 0.35075176f, 0.30542663f, 0.27043957f, 0.54574436f, 0.18035594f, 0.6535573f},
+                        {0.045651197f, 0.57326186f, 0.30392972f, 0.5834616f, 0.29214907f, 0.7268897f},
+                        {0.0207365f, 0.38463163f, 0.16025668f, 0.1527851f, 0.28064936f, 0.42639768f, 0.04348699f, 0.47503132f},
+                        {0.16342454f, -0.27147236f, 0.26484174f, -0.39647236f, 0.51882124f, -0.2582344f, 0.28847343f, -0.19717304f}
+                },
+                {
+                        {0.35289717f, 0.04408419f, 0.383812f, -0.15857476f, 0.43886006f, -0.39003414f},
+                        {0.0f, -0.10544697f, 0.07138388f, -0.25f, 0.35714912f, -0.086915046f, 0.25f, -0.088831834f},
+                        {0.22133511f, -0.4375f, 0.3246847f, -0.62610143f, 0.6576836f, -0.5f, 0.3125f, -0.125f},
+                        {0.25243786f, -0.10470348f, 0.32228988f, -0.0328078f, 0.5722899f, 0.22742507f},
+                        {0.28090727f, -0.8293123f, 0.35866687f, -0.85735834f, 0.72363275f, -0.80505645f, 0.5234399f, -0.4506954f, 0.28553975f, -0.68302095f}
+                },
+                {
+                        {-0.11792813f, -0.6831633f, -0.05582303f, -0.8081633f, 0.11824176f, -0.83248794f, 0.12747405f, -0.54030097f, 0.090311974f, -0.31492984f, 0.011340365f, -0.2754095f, -0.11782457f, -0.36986443f},
+                        {-0.32457578f, -0.6561169f, -0.2650546f, -0.97653395f, 0.054193735f, -0.6196532f, -0.32080626f, -0.51745766f},
+                        {-0.22193432f, -0.33579847f, -0.2060782f, -0.3759827f, -0.043675408f, -0.45866036f, -0.113796055f, -0.30608815f, -0.15972617f, -0.24036677f}
+                }
+        };
+
+        PolygonBuffer hulls = new PolygonBuffer(), union = new PolygonBuffer();
+        for (float[][] hullCase : cases) {
+            hulls.clear();
+            for (float[] hull : hullCase) hulls.addPolygon(hull, 0, hull.length / 2);
+            PolygonMath.unionConvex(hulls, union, new PolygonMath.UnionScratch());
+
+            for (int i = 0; i < union.getPolygonCount(); i++) {
+                float[] outline = getPolygon(union, i);
+                assertNoRepeatedPoints(outline);
+                PolygonMathTest.assertTriangulation(outline);
+            }
+        }
+    }
+
+    // Compared with the area the boxes cover on a grid
+    @Test
+    void unionCoversTheBoxes() {
+        Random random = new Random(2);
+        PolygonBuffer boxes = new PolygonBuffer(), union = new PolygonBuffer();
+        PolygonMath.UnionScratch scratch = new PolygonMath.UnionScratch();
+
+        for (int round = 0; round < 50; round++) {
+            addRotatedBoxes(random, boxes);
+            PolygonMath.unionConvex(boxes, union, scratch);
+
+            float area = 0;
+            for (int i = 0; i < union.getPolygonCount(); i++) area += PolygonMathTest.area(getPolygon(union, i));
+
+            int samples = 200, covered = 0;
+            float step = 3f / samples;
+            for (int x = 0; x < samples; x++) {
+                for (int y = 0; y < samples; y++) {
+                    if (isCovered(boxes, -1.5f + (x + 0.5f) * step, -1.5f + (y + 0.5f) * step)) covered++;
+                }
+            }
+            assertEquals(covered * step * step, area, 0.02f);
+        }
+    }
+
+    // Two to six boxes, some sharing an angle like the bones of one limb and some snapped to the pixel grid
+    private static void addRotatedBoxes(Random random, PolygonBuffer boxes) {
+        boxes.clear();
+        int count = 2 + random.nextInt(5);
+        float sharedAngle = (float) (random.nextFloat() * Math.PI);
+
+        for (int i = 0; i < count; i++) {
+            float
+                    centerX = random.nextFloat() - 0.5f,
+                    centerY = random.nextFloat() - 0.5f,
+                    halfWidth = 0.05f + random.nextFloat() * 0.5f,
+                    halfHeight = 0.05f + random.nextFloat() * 0.5f,
+                    angle = random.nextInt(3) == 0 ? sharedAngle : (float) (random.nextFloat() * Math.PI);
+
+            if (random.nextInt(4) == 0) {
+                centerX = Math.round(centerX * 16) / 16f;
+                centerY = Math.round(centerY * 16) / 16f;
+            }
+
+            float cos = (float) Math.cos(angle), sin = (float) Math.sin(angle);
+            boxes.beginPolygon();
+            for (int corner = 0; corner < 4; corner++) {
+                float
+                        x = (corner == 1 || corner == 2 ? 1 : -1) * halfWidth,
+                        y = (corner >= 2 ? 1 : -1) * halfHeight;
+                boxes.addPoint(centerX + cos * x - sin * y, centerY + sin * x + cos * y);
+            }
+            boxes.endPolygon(3);
+        }
+    }
+
+    // A spike is a corner where the outline runs out and comes back almost on itself. The trapezoids used for outlines
+    // with holes are thin on purpose, so only traced outlines (more than four points) are checked
+    private static void assertNoSpikes(float[] outline) {
+        int count = outline.length / 2;
+        if (count <= 4) return;
+
+        for (int i = 0; i < count; i++) {
+            int previous = (i + count - 1) % count, next = (i + 1) % count;
+            float
+                    ax = outline[i * 2] - outline[previous * 2], ay = outline[i * 2 + 1] - outline[previous * 2 + 1],
+                    bx = outline[next * 2] - outline[i * 2], by = outline[next * 2 + 1] - outline[i * 2 + 1],
+                    cross = ax * by - ay * bx;
+
+            boolean doublesBack = ax * bx + ay * by < 0 && Math.abs(cross) <= 1e-3f * (float) Math.sqrt((ax * ax + ay * ay) * (bx * bx + by * by));
+            assertFalse(doublesBack, "outline doubles back");
+        }
+    }
+
+    private static void assertNoRepeatedPoints(float[] outline) {
+        for (int i = 0; i < outline.length; i += 2) {
+            for (int j = i + 2; j < outline.length; j += 2) {
+                assertFalse(outline[i] == outline[j] && outline[i + 1] == outline[j + 1], "outline runs through a point twice");
+            }
+        }
+    }
+
+    private static boolean isCovered(PolygonBuffer boxes, float x, float y) {
+        float[] coords = boxes.getCoords();
+        for (int i = 0; i < boxes.getPolygonCount(); i++) {
+            int offset = boxes.getOffset(i), length = boxes.getLength(i);
+
+            boolean inside = true;
+            for (int j = 0; j < length && inside; j++) {
+                int a = offset + j, b = offset + (j + 1) % length;
+                inside = PolygonMath.crossProduct(coords[a * 2], coords[a * 2 + 1], coords[b * 2], coords[b * 2 + 1], x, y) >= 0;
+            }
+            if (inside) return true;
+        }
+        return false;
+    }
+
+    private static float[] getPolygon(PolygonBuffer polygons, int index) {
+        int offset = polygons.getOffset(index);
+        return Arrays.copyOfRange(polygons.getCoords(), offset * 2, (offset + polygons.getLength(index)) * 2);
+    }
+}